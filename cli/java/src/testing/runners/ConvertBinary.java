@@ -0,0 +1,41 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package testing.runners;
+
+/* Standard Libraries */
+import java.io.IOException;
+
+/* Q*cert Java runtime */
+import org.qcert.runtime.MappedData;
+
+/**
+ * Converts JSON input data into the binary format read by RunJava -binary.
+ */
+public class ConvertBinary {
+
+    // Usage
+    private static void usage() {
+	System.err.println("Q*cert binary input converter requires the JSON input file and the binary file to write.\n"+
+			   "Usage: ConvertBinary input.json output.bin\n");
+    }
+
+    // Main
+    public static void main(String[] args) throws IOException {
+	if (args.length != 2) {
+	    usage();
+	    System.exit(1);
+	}
+	MappedData.convert(args[0], args[1]);
+    }
+}
@@ -62,15 +62,16 @@ public class QIO {
     /**
      * Parse the files containing schema, input and output in JSON
      * @param schemaFile the path to the schema file
-     * @param inputFile the path to the input file
+     * @param inputFile the path to the input file, or null if the input is binary
      * @param outputFile the path to the output file
      * @return a QIO object
      */
     QIO(String schemaFile, String inputFile, String outputFile) throws IOException {
-        if (inputFile == null) throw new IllegalArgumentException("Must have input file");
-        // Set the input
-        JsonElement rawInput = new JsonParser().parse(new FileReader(inputFile));
-        _input = rawInput.getAsJsonObject();
+        // Set the input (absent when the input is read from a binary file)
+        if (inputFile != null) {
+            JsonElement rawInput = new JsonParser().parse(new FileReader(inputFile));
+            _input = rawInput.getAsJsonObject();
+        }
         // Set the schema and inheritance
         if (schemaFile != null) {
             JsonElement rawSchema = new JsonParser().parse(new FileReader(schemaFile));
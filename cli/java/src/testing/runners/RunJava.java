@@ -28,6 +28,9 @@ import com.google.gson.JsonParser;
 /* Q*cert Java runtime */
 import org.qcert.runtime.Inheritance;
 import org.qcert.runtime.JavaQuery;
+import org.qcert.runtime.JsonConverter;
+import org.qcert.runtime.MappedData;
+import org.qcert.runtime.QcertData;
 import org.qcert.runtime.BinaryOperators;
 
 public class RunJava {
@@ -39,19 +42,26 @@ public class RunJava {
 
     // Usage
     private static void usage() {
-	System.err.println("Q*cert Javascript Runner requires the option -input or -io, and the Java class name.\n"+
+	System.err.println("Q*cert Javascript Runner requires the option -input, -binary or -io, and the Java class name.\n"+
 			   "Options:\n"+
 			   " [-io filename] a JSON object containing the input data, the schema and the expected output\n"+
 			   " [-input filename] the input data\n"+
+			   " [-binary filename] the input data, in the binary format produced by testing.runners.ConvertBinary\n"+
 			   " [-schema filename] the schema\n"+
 			   " [-output filename] the expected output\n");
     }
 
     // Running the Query
-    public static JsonElement runQuery(JavaQuery query, QIO qio) {
+    public static QcertData runQuery(JavaQuery query, QIO qio) {
 	/* Passes empty class inheritance for now */
 	Inheritance inheritance = new Inheritance(qio.getInheritance());
-	return query.query(inheritance, qio.getInput());
+	return query.query(inheritance, JsonConverter.fromJson(qio.getInput()));
+    }
+
+    // Running the Query on memory mapped input
+    public static QcertData runQuery(JavaQuery query, QIO qio, String binaryFile) throws IOException {
+	Inheritance inheritance = new Inheritance(qio.getInheritance());
+	return query.query(inheritance, MappedData.open(binaryFile));
     }
 
     // Main
@@ -62,6 +72,7 @@ public class RunJava {
 
 	String ioFile = null;
 	String inputFile = null;
+	String binaryFile = null;
 	String inputString = null;
 	String schemaFile = null;
 	String outputFile = null;
@@ -70,16 +81,21 @@ public class RunJava {
 	    // Must have a -input option for the input JSON
 	    if ("-io".equals(arg)) { ioFile = args[i+1]; i++; }
 	    else if ("-input".equals(arg)) { inputFile = args[i+1]; i++; }
+	    else if ("-binary".equals(arg)) { binaryFile = args[i+1]; i++; }
 	    else if ("-schema".equals(arg)) { schemaFile = args[i+1]; i++; }
 	    else if ("-output".equals(arg)) { outputFile = args[i+1]; i++; }
 	    else {
 		// Load input JSON, which may include schema (inheritance) and output
 		// Must have a -input or -io option for the input JSON
+		if (inputFile != null && binaryFile != null) {
+		    usage();
+		    throw new IllegalArgumentException("Options -input and -binary cannot be used together");
+		}
 		JsonElement output = null;
 		QIO qio = null;
 		if (ioFile != null) {
 		    qio = new QIO(ioFile);
-		} else if (inputFile != null) {
+		} else if (inputFile != null || binaryFile != null) {
 		    qio = new QIO(schemaFile, inputFile, outputFile);
 		} else {
 		    throw new IllegalArgumentException("Input Data File Missing");
@@ -89,13 +105,13 @@ public class RunJava {
 		@SuppressWarnings("unchecked")
 		    final Class<JavaQuery> queryClass = (Class<JavaQuery>) Class.forName(queryClassName);
 		final JavaQuery query = queryClass.newInstance();
-		JsonElement result = runQuery(query, qio);
+		QcertData result = binaryFile != null ? runQuery(query, qio, binaryFile) : runQuery(query, qio);
 		// Validate the result
 		if (output == null) {
 		    // Print the result
 		    System.out.println(result);
 		} else {
-		    Boolean valid = BinaryOperators.equals(result, output).getAsBoolean();
+		    Boolean valid = BinaryOperators.equals(result, JsonConverter.fromJson(output)).getAsBoolean();
 		    if (valid) {
 			System.out.println("["+arg+" java] OK");
 		    } else {
@@ -25,7 +25,7 @@ Section Java.
   
   (* XXX Those should be turned into a kind of AST *)
   Section Ast.
-    (* data of this type is a java expression that constructs a json element *)
+    (* data of this type is a java expression that constructs a runtime value (QcertData) *)
     Inductive java_json : Set
       := mk_java_json : nstring -> java_json.
 
@@ -34,13 +34,13 @@ Section Java.
          | mk_java_json s => s
          end.
 
-    (* Given a list of strings that construct objects, create a JsonArray holding them *)
+    (* Given a list of strings that construct objects, create a bag holding them *)
     Definition mk_java_json_array (l:list java_json) : java_json
-      := mk_java_json (^"RuntimeUtils.createJsonArray"
+      := mk_java_json (^"RuntimeUtils.createBag"
                           +++ nstring_bracket (^"(") (nstring_map_concat (^", ") from_java_json l) (^")")).
 
     Definition mk_java_json_object (quotel:nstring) (l:list (nstring*java_json)) : java_json
-      := mk_java_json (^"new RuntimeUtils.JsonObjectBuilder()" 
+      := mk_java_json (^"new RuntimeUtils.RecBuilder()" 
                           +++ (nstring_map_concat (^"")
                                                   (fun elem =>
                                                      nstring_bracket
@@ -48,28 +48,23 @@ Section Java.
                                                        (quotel +++ (fst elem) +++ quotel +++ (^", ") +++
                                                                (from_java_json (snd elem)))
                                                        (^")")) l)
-                          +++ ^".toJsonObject()").
+                          +++ ^".toRec()").
                
-    Definition mk_java_json_primitive (obj:nstring) : java_json
-      := mk_java_json (^"new JsonPrimitive(" +++ obj +++ ^")").
-
     Definition mk_java_json_string quotel (s:nstring)
-      := mk_java_json_primitive
-           (nstring_bracket quotel s quotel).    
+      := mk_java_json (^"StringData.intern(" +++ (nstring_bracket quotel s quotel) +++ ^")").
 
     Definition java_json_NULL : java_json
-      := mk_java_json (^"JsonNull.INSTANCE").
+      := mk_java_json (^"QcertData.UNIT").
  
-    Definition mk_java_json_nat quotel n : java_json
-      := mk_java_json_object quotel
-                             [(^"$nat", (mk_java_json_primitive (^Z_to_string10 n)))].
+    Definition mk_java_json_nat (quotel:nstring) n : java_json
+      := mk_java_json (^"NatData.of(" +++ (^Z_to_string10 n) +++ ^"L)").
 
     Definition mk_java_json_number n : java_json
-      := mk_java_json_primitive (^float_to_string n).
+      := mk_java_json (^"FloatData.of(" +++ (^float_to_string n) +++ ^")").
 
     Definition mk_java_json_bool (b:bool) : java_json
-      := mk_java_json_primitive 
-           (if b then ^"true" else ^"false").
+      := mk_java_json
+           (if b then ^"QcertData.TRUE" else ^"QcertData.FALSE").
 
     Definition mk_java_string (s:nstring) : nstring
       := nquotel_double +++ s +++ nquotel_double.
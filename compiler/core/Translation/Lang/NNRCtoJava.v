@@ -42,9 +42,6 @@ Section NNRCtoJava.
   Section DataJava.
     Context {ftojavajson:foreign_to_java}.
 
-    Definition mk_java_json_brands (quotel:nstring) (b:brands) : java_json
-      := mk_java_json_array (map (mk_java_json_string quotel) (map nstring_quote b)).
-
     Fixpoint mk_java_json_data (quotel:nstring) (d : data) : java_json :=
       match d with
       | dunit => java_json_NULL
@@ -58,16 +55,10 @@ Section NNRCtoJava.
                      (map (fun kv =>
                              let '(k,v) := kv in
                              (^k, (mk_java_json_data quotel v))) ls)
-      | dleft d => mk_java_json_object quotel
-                                       [(^"$left", (mk_java_json_data quotel d))]
-                                       
-      | dright d => mk_java_json_object quotel
-                                        [(^"$right", (mk_java_json_data quotel d))]
-                                        
+      | dleft d => mk_java_unary_op0 (^"left") (mk_java_json_data quotel d)
+      | dright d => mk_java_unary_op0 (^"right") (mk_java_json_data quotel d)
       | dbrand b d =>
-        mk_java_json_object quotel
-                            [(^"$data", mk_java_json_data quotel d)
-                             ; (^"$type", mk_java_json_brands quotel b)]
+        mk_java_unary_op1 (^"brand") (mk_java_string_collection (map nstring_quote b)) (mk_java_json_data quotel d)
       | dforeign fd => foreign_to_java_data quotel fd
       end.
 
@@ -182,8 +173,9 @@ Section NNRCtoJava.
                      | OpFlatten => mk_java_unary_op0 (^"flatten") e1
                      | OpDistinct => mk_java_unary_op0 (^"distinct") e1
                      | OpOrderBy sl =>
+                       (* As in the semantics of OpOrderBy, the sort direction is ignored *)
                        mk_java_unary_op1 (^"sort")
-                                         (mk_java_string_collection (map nstring_quote (map fst sl))) e1 (* XXX TO FIX XXX *)
+                                         (mk_java_string_collection (map nstring_quote (map fst sl))) e1
                      | OpCount => mk_java_unary_op0 (^"count") e1
                      | OpToString =>  mk_java_unary_op0 (^"tostring") e1
                      | OpToText =>  mk_java_unary_op0 (^"totext") e1
@@ -218,6 +210,12 @@ Section NNRCtoJava.
                        => foreign_to_java_unary_op i eol quotel fu e1
                      end in
            (s1, e0, t0)
+         | NNRCBinop OpBagNth (NNRCUnop (OpOrderBy sl) n1) n2 =>
+           (* Only the first elements of the sorted bag are needed, so the runtime uses a bounded heap *)
+           let '(s1, e1, t2) := nnrcToJava n1 t i eol quotel ivs in
+           let '(s2, e2, t0) := nnrcToJava n2 t2 i eol quotel ivs in
+           let e0 := mk_java_binary_opn (^"sort_nth") [mk_java_string_collection (map nstring_quote (map fst sl))] e1 e2 in
+           (s1 +++ s2, e0, t0)
          | NNRCBinop op n1 n2 =>
            let '(s1, e1, t2) := nnrcToJava n1 t i eol quotel ivs in
            let '(s2, e2, t0) := nnrcToJava n2 t2 i eol quotel ivs in
@@ -250,9 +248,9 @@ Section NNRCtoJava.
            let v0 := ^"v" +++ ^v in
            let ret := ^"vletvar$" +++ ^v +++ ^"$" +++ (^nat_to_string10 t0) in
            (s1
-              +++ (indent i) +++ ^"final JsonElement " +++ ret +++ ^";" +++ eol
+              +++ (indent i) +++ ^"final QcertData " +++ ret +++ ^";" +++ eol
               +++ (indent i) +++ ^"{ // new scope introduced for a let statement" +++ eol
-              +++ (indent (i+1)) +++ ^"final JsonElement " +++ v0 +++ ^" = " +++ (from_java_json e1) +++ ^";" +++ eol
+              +++ (indent (i+1)) +++ ^"final QcertData " +++ v0 +++ ^" = " +++ (from_java_json e1) +++ ^";" +++ eol
               +++ s2
               +++ (indent (i+1)) +++ ret +++ ^" = " +++ (from_java_json e2) +++ ^";" +++ eol
               +++ (indent i) +++ ^"}" +++ eol,
@@ -261,23 +259,19 @@ Section NNRCtoJava.
            let '(s1, e1, t2) := nnrcToJava iter t i eol quotel ivs in
            let '(s2, e2, t0) := nnrcToJava body t2 (i+1) eol quotel ivs in
            let elm := ^"v" +++ ^v in
-           let src := ^"src" +++ (^nat_to_string10 t0) in
-           let idx := ^"i" +++ (^nat_to_string10 t0) in
            let dst := ^"dst" +++ (^nat_to_string10 t0) in
-           (s1 +++ (indent i) +++ ^"final JsonArray " +++ src +++ ^" = (JsonArray) " +++ (from_java_json e1) +++ ^";" +++ eol
-               +++ (indent i) +++ ^"final JsonArray " +++ dst +++ ^" = new JsonArray();" +++ eol
-               +++ (indent i) +++ ^"for(int " +++ idx +++ ^" = 0; " +++ idx +++ ^" < " +++ src +++ ^".size(); " +++ idx +++ ^"++) {" +++ eol
-               +++ (indent (i+1)) +++ ^"final JsonElement " +++ elm +++ ^" = " +++ src +++ ^".get(" +++ idx +++ ^");" +++ eol
+           (* The body is a lambda: the loop is a lazy stage pulled by the consumer of its result *)
+           (s1 +++ (indent i) +++ ^"final BagData " +++ dst +++ ^" = ((BagData) " +++ (from_java_json e1) +++ ^").map(" +++ elm +++ ^" -> {" +++ eol
                +++ s2
-               +++ (indent (i+1)) +++ dst +++ ^".add(" +++ (from_java_json e2) +++ ^");" +++ eol
-               +++ (indent i) +++ ^"}" +++ eol,
+               +++ (indent (i+1)) +++ ^"return " +++ (from_java_json e2) +++ ^";" +++ eol
+               +++ (indent i) +++ ^"});" +++ eol,
             (mk_java_json dst), t0 + 1)
          | NNRCIf c n1 n2 =>
            let '(s1, e1, t2) := nnrcToJava c t i eol quotel ivs in
            let '(s2, e2, t3) := nnrcToJava n1 t2 (i+1) eol quotel ivs in
            let '(s3, e3, t0) := nnrcToJava n2 t3 (i+1) eol quotel ivs in
            let v0 := ^"t" +++ (^nat_to_string10 t0) in
-           (s1 +++ (indent i) +++ ^"final JsonElement " +++ v0 +++ ^";" +++ eol
+           (s1 +++ (indent i) +++ ^"final QcertData " +++ v0 +++ ^";" +++ eol
                +++ (indent i) +++ ^"if (RuntimeUtils.asBoolean(" +++ (from_java_json e1) +++ ^")) {" +++ eol
                +++ s2
                +++ (indent (i+1)) +++ v0 +++ ^" = " +++ (from_java_json e2) +++ ^";" +++ eol
@@ -293,14 +287,14 @@ Section NNRCtoJava.
            let vl := ^"v" +++ ^xl in
            let vr := ^"v" +++ ^xr in
            let res := ^"res" +++ (^nat_to_string10 t0) in  (* Stores the result from either left or right evaluation so it can be returned *)
-           (s1 +++ (indent i) +++ ^"final JsonElement " +++ res +++ ^";" +++ eol
+           (s1 +++ (indent i) +++ ^"final QcertData " +++ res +++ ^";" +++ eol
                +++ (indent i) +++ ^"if (RuntimeUtils.either(" +++ (from_java_json e1) +++ ^")) {" +++ eol
-               +++ (indent (i+1)) +++ ^"final JsonElement " +++ vl +++ eol
+               +++ (indent (i+1)) +++ ^"final QcertData " +++ vl +++ eol
                +++ (indent (i+1)) +++ ^" = RuntimeUtils.toLeft(" +++ (from_java_json e1) +++ ^");" +++ eol
                +++ s2
                +++ (indent (i+1)) +++ res +++ ^" = " +++ (from_java_json e2) +++ ^";" +++ eol
                +++ (indent i) +++ ^"} else {" +++ eol
-               +++ (indent (i+1)) +++ ^"final JsonElement " +++ vr  +++ eol
+               +++ (indent (i+1)) +++ ^"final QcertData " +++ vr  +++ eol
                +++ (indent (i+1)) +++ ^" = RuntimeUtils.toRight(" +++ (from_java_json e1) +++ ^");" +++ eol
                +++ s3
                +++ (indent (i+1)) +++ res +++ ^" = " +++ (from_java_json e3) +++ ^";" +++ eol
@@ -317,7 +311,7 @@ Section NNRCtoJava.
       nnrcToJava n t i eol quotel ivs.
 
     Definition makeJavaParams (ivs: list(string*nstring)) :=
-      nstring_map_concat (^", ") (fun elem => ^"JsonElement " +++ snd elem) ivs.
+      nstring_map_concat (^", ") (fun elem => ^"QcertData " +++ snd elem) ivs.
 
     (* Free variables are assumed to be constant lookups *)
     Definition closeFreeVars (input:string) (e:nnrc) (ivs:list(string*nstring)) : nnrc :=
@@ -333,7 +327,7 @@ Section NNRCtoJava.
     Definition nnrcToJavaFun (i:nat) (input_v:string) (e:nnrc) (eol:nstring) (quotel:nstring) (ivs : list (string * nstring)) (fname:nstring) :=
       let e' := closeFreeVars input_v e ivs in
       let '(j0, v0, t0) := nnrcToJavaunshadow e' 1 (i + 1) eol quotel ("constants"::"inheritance"::(List.map fst ivs)) ivs in
-      (indent i) +++ ^"public JsonElement " +++ fname +++ ^"(Inheritance inheritance, " +++ (makeJavaParams ivs) +++ ^") {" +++ eol
+      (indent i) +++ ^"public QcertData " +++ fname +++ ^"(Inheritance inheritance, " +++ (makeJavaParams ivs) +++ ^") {" +++ eol
                  +++ j0
                  +++ (indent i) +++ ^"  return " +++ (from_java_json v0) +++ ^";" +++ eol
                  +++ (indent i) +++ ^"}" +++ eol.
@@ -343,7 +337,6 @@ Section NNRCtoJava.
       (if(package_name == "")
       then ^""
       else ^"package " +++ ^package_name +++ ^";" +++ eol +++ eol)
-        +++ ^"import com.google.gson.*;" +++ eol
         +++ (if(imports == "")
             then ^""
             else ^"import " +++ ^imports +++ ^";" +++ eol)
@@ -0,0 +1,50 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.runtime;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+
+/**
+ * A bag of arbitrary data
+ */
+final class ArrayBagData extends BagData {
+	private final QcertData[] elems;
+
+	ArrayBagData(QcertData[] elems) {
+		this.elems = elems;
+	}
+
+	@Override
+	public int size() {
+		return elems.length;
+	}
+
+	@Override
+	public QcertData get(int i) {
+		return elems[i];
+	}
+
+	@Override
+	public QcertData[] toArray() {
+		return Arrays.copyOf(elems, elems.length);
+	}
+
+	@Override
+	public Iterator<QcertData> iterator() {
+		// flatten iterates over many empty bags, which share one iterator
+		return elems.length == 0 ? Collections.<QcertData>emptyIterator() : Arrays.asList(elems).iterator();
+	}
+}
@@ -0,0 +1,245 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.runtime;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Represents the dcoll data constructor.
+ * Bags are immutable; they are built using {@link RuntimeUtils.BagBuilder}.
+ * Bags of nats and bags of floats are stored as primitive arrays, and the
+ * aggregation kernels below are specialized for them.
+ */
+public abstract class BagData extends QcertData implements Iterable<QcertData> {
+	/** Single instance of the empty bag */
+	public static final BagData EMPTY = new ArrayBagData(new QcertData[0]);
+
+	/*
+	 * Picks the representation of the bag.
+	 * The array is owned by the bag, and must not be modified afterwards
+	 */
+	static BagData of(QcertData[] elems) {
+		boolean allNat = true;
+		boolean allFloat = true;
+		for(final QcertData elem : elems) {
+			allNat &= elem instanceof NatData;
+			allFloat &= elem instanceof FloatData;
+		}
+		return of(elems, allNat, allFloat);
+	}
+
+	static BagData of(QcertData[] elems, boolean allNat, boolean allFloat) {
+		if(elems.length == 0) {
+			return EMPTY;
+		} else if(allNat) {
+			final long[] values = new long[elems.length];
+			for(int i = 0; i < elems.length; i ++) {
+				values[i] = ((NatData) elems[i]).getAsLong();
+			}
+			return new LongBagData(values);
+		} else if(allFloat) {
+			final double[] values = new double[elems.length];
+			for(int i = 0; i < elems.length; i ++) {
+				values[i] = ((FloatData) elems[i]).getAsDouble();
+			}
+			return new DoubleBagData(values);
+		} else {
+			return new ArrayBagData(elems);
+		}
+	}
+
+	@Override
+	public Kind getKind() {
+		return Kind.dcoll;
+	}
+
+	@Override
+	public BagData getAsBag() {
+		return this;
+	}
+
+	public abstract int size();
+
+	public abstract QcertData get(int i);
+
+	public QcertData[] toArray() {
+		final QcertData[] dst = new QcertData[size()];
+		for(int i = 0; i < dst.length; i ++) {
+			dst[i] = get(i);
+		}
+		return dst;
+	}
+
+	/* See DataHasher.fingerprint; zero until computed */
+	private volatile long fingerprint = 0;
+
+	long fingerprint() {
+		long fp = fingerprint;
+		if(fp == 0) {
+			fp = DataHasher.computeFingerprint(this);
+			fingerprint = fp;
+		}
+		return fp;
+	}
+
+	/*
+	 * The elements in DataComparator order, computed on the first comparison
+	 * of the bag; bags are immutable, so this view is shared by all later
+	 * comparisons
+	 */
+	private volatile QcertData[] canonical = null;
+
+	QcertData[] sorted() {
+		QcertData[] view = canonical;
+		if(view == null) {
+			view = toArray();
+			Arrays.sort(view, DataComparator.getComparator());
+			canonical = view;
+		}
+		return view;
+	}
+
+	/*
+	 * Membership uses a linear scan the first time; a bag that is queried
+	 * again (typically a loop invariant, as in a semi-join) gets a hash index,
+	 * which lives as long as the bag
+	 */
+	private static final int SCAN_SIZE = 8;
+	private volatile boolean scanned = false;
+	private volatile HashSet<QcertData> index = null;
+
+	boolean contains(QcertData elem) {
+		HashSet<QcertData> members = index;
+		if(members == null) {
+			if(! scanned || size() <= SCAN_SIZE) {
+				scanned = true;
+				final DataComparator comp = DataComparator.getComparator();
+				for(final QcertData member : this) {
+					if(comp.equal(member, elem)) {
+						return true;
+					}
+				}
+				return false;
+			}
+			members = new HashSet<QcertData>(Math.max(16, (int) (size() / .75f) + 1));
+			for(final QcertData member : this) {
+				members.add(member);
+			}
+			index = members;
+		}
+		return members.contains(elem);
+	}
+
+	/* Lazy stages, see LazyBagData */
+
+	public BagData map(Function<QcertData, QcertData> f) {
+		return new LazyBagData(this, LazyBagData.mapStage(f));
+	}
+
+	public BagData filter(Predicate<QcertData> p) {
+		return new LazyBagData(this, LazyBagData.filterStage(p));
+	}
+
+	public BagData flatMap(Function<QcertData, BagData> f) {
+		return new LazyBagData(this, LazyBagData.flatMapStage(f));
+	}
+
+	@Override
+	public Iterator<QcertData> iterator() {
+		return new Iterator<QcertData>() {
+			private int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				return next < size();
+			}
+
+			@Override
+			public QcertData next() {
+				if(next >= size()) {
+					throw new NoSuchElementException();
+				}
+				return get(next ++);
+			}
+		};
+	}
+
+	/* Aggregation kernels, overridden by the primitive representations */
+
+	long sumLong() {
+		long acc = 0;
+		for(final QcertData elem : this) {
+			acc += elem.getAsLong();
+		}
+		return acc;
+	}
+
+	long minLong() {
+		long min = Long.MAX_VALUE;
+		for(final QcertData elem : this) {
+			min = Math.min(min, elem.getAsLong());
+		}
+		return min;
+	}
+
+	long maxLong() {
+		long max = Long.MIN_VALUE;
+		for(final QcertData elem : this) {
+			max = Math.max(max, elem.getAsLong());
+		}
+		return max;
+	}
+
+	final double sumDouble() {
+		return sumDouble(0.0d);
+	}
+
+	/*
+	 * Adds the elements to acc, one at a time and in order, since float sums
+	 * depend on the order of the additions
+	 */
+	double sumDouble(double acc) {
+		for(final QcertData elem : this) {
+			acc += elem.getAsDouble();
+		}
+		return acc;
+	}
+
+	double minDouble() {
+		double min = Double.MAX_VALUE;
+		for(final QcertData elem : this) {
+			final double d = elem.getAsDouble();
+			if(d < min) {
+				min = d;
+			}
+		}
+		return min;
+	}
+
+	double maxDouble() {
+		double max = -Double.MAX_VALUE;
+		for(final QcertData elem : this) {
+			final double d = elem.getAsDouble();
+			if(d > max) {
+				max = d;
+			}
+		}
+		return max;
+	}
+}
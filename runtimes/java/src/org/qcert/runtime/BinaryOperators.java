@@ -14,303 +14,286 @@
 
 package org.qcert.runtime;
 
-import java.time.Duration;
-import java.time.ZonedDateTime;
-import java.util.List;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashSet;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.Iterator;
-import java.util.Map.Entry;
-
-import com.google.gson.*;
+import java.util.HashMap;
+import java.util.Map;
 
 public class BinaryOperators {
-	static JsonPrimitive toLong(long e) {
-		return new JsonPrimitive(new Long(e));
+	static NatData toLong(long e) {
+		return NatData.of(e);
 	}
 	
-	static double asDouble(JsonElement e) {
+	static double asDouble(QcertData e) {
 		return e.getAsDouble();
 	}
 	
-	static JsonPrimitive toDouble(double e) {
-		return new JsonPrimitive(new Double(e));
+	static FloatData toDouble(double e) {
+		return FloatData.of(e);
 	}
 	
-	static JsonArray asColl(JsonElement e) {
-		return e.getAsJsonArray();
+	static BagData asColl(QcertData e) {
+		return e.getAsBag();
 	}
 
-	static JsonObject asRec(JsonElement e) {
-		return e.getAsJsonObject();
+	static RecData asRec(QcertData e) {
+		return e.getAsRec();
 	}
 
-	static Collection<JsonElement> collToCollection(JsonArray coll) {
-		final ArrayList<JsonElement> dst = new ArrayList<JsonElement>(coll.size());
-		for(final JsonElement elem : coll) {
-			dst.add(elem);
-		}
-		return dst;
-	}
-
-	public static JsonElement plus(JsonElement e1, JsonElement e2) {
+	public static QcertData plus(QcertData e1, QcertData e2) {
 		return toLong(RuntimeUtils.asLong(e1)+RuntimeUtils.asLong(e2));
 	}
-	public static JsonElement minus(JsonElement e1, JsonElement e2) {
+	public static QcertData minus(QcertData e1, QcertData e2) {
 		return toLong(RuntimeUtils.asLong(e1)-RuntimeUtils.asLong(e2));
 	}
-	public static JsonElement mult(JsonElement e1, JsonElement e2) {
+	public static QcertData mult(QcertData e1, QcertData e2) {
 		return toLong(RuntimeUtils.asLong(e1)*RuntimeUtils.asLong(e2));
 	}
-	public static JsonElement divide(JsonElement e1, JsonElement e2) {
+	public static QcertData divide(QcertData e1, QcertData e2) {
 		return toLong(RuntimeUtils.asLong(e1)/RuntimeUtils.asLong(e2));
 	}
-	public static JsonElement rem(JsonElement e1, JsonElement e2) {
+	public static QcertData rem(QcertData e1, QcertData e2) {
 		return toLong(RuntimeUtils.asLong(e1)%RuntimeUtils.asLong(e2));
 	}
-	public static JsonElement min(JsonElement e1, JsonElement e2) {
+	public static QcertData min(QcertData e1, QcertData e2) {
 		return toLong(Math.min(RuntimeUtils.asLong(e1),RuntimeUtils.asLong(e2)));
 	}
-	public static JsonElement max(JsonElement e1, JsonElement e2) {
+	public static QcertData max(QcertData e1, QcertData e2) {
 		return toLong(Math.max(RuntimeUtils.asLong(e1),RuntimeUtils.asLong(e2)));
 	}
 	
-	public static JsonElement equals(JsonElement e1, JsonElement e2) {
-		return new JsonPrimitive(DataComparator.getComparator().compare(e1, e2) == 0);
+	public static BoolData equals(QcertData e1, QcertData e2) {
+		return BoolData.of(DataComparator.getComparator().equal(e1, e2));
 	}
 	
-	public static JsonElement union(JsonElement e1, JsonElement e2) {
-		final JsonArray dst = new JsonArray();
-		dst.addAll(e1.getAsJsonArray());
-		dst.addAll(e2.getAsJsonArray());
-		return dst;
+	public static QcertData union(QcertData e1, QcertData e2) {
+		// Bags are immutable, so the operands are linked rather than copied
+		return ConcatBagData.concat(asColl(e1), asColl(e2));
 	}
 	
-	public static JsonElement concat(JsonElement e1, JsonElement e2) {
-		final JsonObject rec1 = asRec(e1);
-		final JsonObject rec2 = asRec(e2);
+	public static QcertData concat(QcertData e1, QcertData e2) {
+		final RecData rec1 = asRec(e1);
+		final RecData rec2 = asRec(e2);
 
-    // Sort based on keys first and do not add fields in rec1 which are in rec
-    Set<Entry<String,JsonElement>> entryset = new HashSet<Entry<String,JsonElement>>();
-		for(final Entry<String, JsonElement> entry : rec2.entrySet()) {
-      entryset.add(entry);
-		}
-		for(final Entry<String, JsonElement> entry : rec1.entrySet()) {
-      if (!rec2.has(entry.getKey())) {
-        entryset.add(entry);
-      }
+		// Fields in rec2 take precedence; the resulting layout is cached by the shape
+		if(rec2.size() == 0) {
+			return rec1;
+		} else if(rec1.size() == 0) {
+			return rec2;
 		}
-
-    List<Entry<String,JsonElement>> entrylist = new ArrayList<Entry<String,JsonElement>>(entryset);
-    Comparator<Entry<String,JsonElement>> compareByKey = new Comparator<Entry<String,JsonElement>>() {
-            @Override
-            public int compare(Entry<String,JsonElement> e1, Entry<String,JsonElement> e2) {
-                return e1.getKey().compareTo( e2.getKey() );
-            }
-        };
-
-    Collections.sort(entrylist, compareByKey);
-    
-		final JsonObject dst = new JsonObject();
-		for(final Entry<String, JsonElement> entry : entrylist) {
-        dst.add(entry.getKey(), entry.getValue());
-		}
-		return dst;
+		return new RecData(rec1.getShape().concat(rec2.getShape()), rec1, rec2);
 	}
 	
-	public static JsonElement mergeConcat(JsonElement e1, JsonElement e2) {
-		if(compatibleRecs(asRec(e1), asRec(e2))) {
-			return UnaryOperators.coll(concat(e1,e2));
-		} else {
-			return new JsonArray();
-		}
-	}
-	
-	private static boolean compatibleRecsAux(JsonObject rec1, JsonObject rec2){
-		DataComparator comp = DataComparator.getComparator();
-		for(final Entry<String, JsonElement> entry : rec1.entrySet()) {
-			final String key = entry.getKey();
-			if(rec2.has(key)) {
-				final JsonElement val2 = rec2.get(entry.getKey());
-				if(comp.compare(entry.getValue(), val2) != 0) {
-					return false;
-				}
+	/*
+	 * The layout of the concatenation, cached by the shapes, also lists the
+	 * fields the records share, which must agree.  Records that conflict
+	 * give the (single) empty bag.
+	 */
+	public static QcertData mergeConcat(QcertData e1, QcertData e2) {
+		final RecData rec1 = asRec(e1);
+		final RecData rec2 = asRec(e2);
+		final RecordShape.Layout layout = rec1.getShape().concat(rec2.getShape());
+		final int[] shared = layout.shared;
+		final DataComparator comp = DataComparator.getComparator();
+		for(int k = 0; k < shared.length; k += 2) {
+			if(! comp.equal(rec1.getValue(shared[k]), rec2.getValue(shared[k + 1]))) {
+				return BagData.EMPTY;
 			}
 		}
-		return true;
-	}
-
-	private static boolean compatibleRecs(JsonObject rec1, JsonObject rec2) {
-		if(rec1.size() <= rec2.size()) {
-			return compatibleRecsAux(rec1, rec2);
+		final QcertData merged;
+		if(rec2.size() == 0) {
+			merged = rec1;
+		} else if(rec1.size() == 0) {
+			merged = rec2;
 		} else {
-			return compatibleRecsAux(rec2, rec1);
+			merged = new RecData(layout, rec1, rec2);
 		}
+		return BagData.of(new QcertData[] { merged }, false, false);
 	}
 
-	public static JsonElement and(JsonElement e1, JsonElement e2) {
-		return new JsonPrimitive(e1.getAsBoolean() && e2.getAsBoolean());
+	public static QcertData and(QcertData e1, QcertData e2) {
+		return BoolData.of(e1.getAsBoolean() && e2.getAsBoolean());
 	}
-	public static JsonElement or(JsonElement e1, JsonElement e2) {
-		return new JsonPrimitive(e1.getAsBoolean() || e2.getAsBoolean());
+	public static QcertData or(QcertData e1, QcertData e2) {
+		return BoolData.of(e1.getAsBoolean() || e2.getAsBoolean());
 	}
 	
-	public static JsonElement lt(JsonElement e1, JsonElement e2) {
-		return new JsonPrimitive(RuntimeUtils.asLong(e1) < RuntimeUtils.asLong(e2));
+	public static QcertData lt(QcertData e1, QcertData e2) {
+		return BoolData.of(RuntimeUtils.asLong(e1) < RuntimeUtils.asLong(e2));
 	}
-	public static JsonElement le(JsonElement e1, JsonElement e2) {
-		return new JsonPrimitive(RuntimeUtils.asLong(e1) <= RuntimeUtils.asLong(e2));
+	public static QcertData le(QcertData e1, QcertData e2) {
+		return BoolData.of(RuntimeUtils.asLong(e1) <= RuntimeUtils.asLong(e2));
 	}
 
-	/**
-	 * (Shallow) copies an array.  Note that shallow copying suffices since 
-	 * everything is assumed immutable.
-	 * @param src
-	 * @return
+	// TODO: up to here
+	/*
+	 * Counts the occurrences of each distinct value (see DataHasher)
 	 */
-	public static JsonArray copyArray(JsonArray src) {
-		final JsonArray dst = new JsonArray();
-		dst.addAll(src);
-		return dst;
+	private static HashMap<QcertData, int[]> counts(BagData coll) {
+		final HashMap<QcertData, int[]> counts = new HashMap<QcertData, int[]>();
+		for(final QcertData elem : coll) {
+			final int[] count = counts.get(elem);
+			if(count == null) {
+				counts.put(elem, new int[] { 1 });
+			} else {
+				count[0] ++;
+			}
+		}
+		return counts;
 	}
-	
-	// TODO: up to here
-	public static JsonElement bag_minus(JsonElement e1, JsonElement e2) {
-		final DataComparator comp = DataComparator.getComparator();
-		// Note that collections are immutable, so we need to copy
-		// before removing stuff
-		final JsonArray ec1 = copyArray(asColl(e1));
-		final JsonArray ec2 = asColl(e2);
-		
-		for(final JsonElement elem2 : ec2) {
-			final Iterator<JsonElement> it = ec1.iterator();
-			while(it.hasNext()) {
-				JsonElement elem1 = it.next();
-				if(comp.compare(elem1, elem2) == 0) {
-					it.remove();
-				}
+
+	/*
+	 * Each element of e2 removes the first occurrence of an equal element of e1
+	 */
+	public static QcertData bag_minus(QcertData e1, QcertData e2) {
+		final BagData ec1 = asColl(e1);
+		final BagData ec2 = asColl(e2);
+		if(ec2.size() == 0) {
+			return ec1;
+		}
+		final HashMap<QcertData, int[]> removed = counts(ec2);
+		final RuntimeUtils.BagBuilder dst = new RuntimeUtils.BagBuilder(ec1.size());
+		for(final QcertData elem : ec1) {
+			final int[] count = removed.get(elem);
+			if(count != null && count[0] > 0) {
+				count[0] --;
+			} else {
+				dst.add(elem);
 			}
 		}
-		return ec1;
+		return dst.result();
 	}
 	
-	public static JsonElement bag_min(JsonElement e1, JsonElement e2) {
-		return bag_minus(e1, bag_minus(e1, e2));
+	/*
+	 * Same as bag_minus(e1, bag_minus(e1, e2)): keeps the last min(n1, n2)
+	 * occurrences in e1 of each value occurring n1 times in e1 and n2 times in e2
+	 */
+	public static QcertData bag_min(QcertData e1, QcertData e2) {
+		final BagData ec1 = asColl(e1);
+		final HashMap<QcertData, int[]> skipped = counts(ec1);
+		final HashMap<QcertData, int[]> kept = counts(asColl(e2));
+		for(final Map.Entry<QcertData, int[]> entry : skipped.entrySet()) {
+			final int[] count2 = kept.get(entry.getKey());
+			entry.getValue()[0] -= count2 == null ? 0 : count2[0];
+		}
+		final RuntimeUtils.BagBuilder dst = new RuntimeUtils.BagBuilder();
+		for(final QcertData elem : ec1) {
+			final int[] count = skipped.get(elem);
+			if(count[0] > 0) {
+				count[0] --;
+			} else {
+				dst.add(elem);
+			}
+		}
+		return dst.result();
 	}
 	
-	public static JsonElement bag_max(JsonElement e1, JsonElement e2) {
+	public static QcertData bag_max(QcertData e1, QcertData e2) {
 		return union(e1, bag_minus(e2, e1));
 	}
 	
-  public static JsonElement bag_nth(JsonElement e1, JsonElement e2) {
-    final JsonArray ec = asColl(e1);
-    final Long index = RuntimeUtils.asLong(e2);
-    try {
-        return UnaryOperators.left(ec.get(Math.toIntExact(index)));
-    } catch(IndexOutOfBoundsException e) {
+  public static QcertData bag_nth(QcertData e1, QcertData e2) {
+    final BagData ec = asColl(e1);
+    final long index = RuntimeUtils.asLong(e2);
+    if(index < 0 || index >= ec.size()) {
 				return UnaryOperators.dnone;
     }
+    return UnaryOperators.left(ec.get((int) index));
 	}
 	
-	public static JsonElement contains(JsonElement e1, JsonElement e2) {
-		// Note: we can't use the built in contains operation since
-		// we need equality to be determined by our comparator
-		final JsonArray ec = asColl(e2);
-		final DataComparator comp = DataComparator.getComparator();
-		for(JsonElement elem : ec) {
-//			if (elem instanceof JsonObject) {
-//				elem = RuntimeUtils.toLeft(elem);
-//			}
-			if(comp.compare(elem, e1) == 0) {
-				return new JsonPrimitive(true);
-			}
+	/*
+	 * Same as bag_nth(UnaryOperators.sort(fields, e1), e2), but only the
+	 * first e2+1 elements are ordered
+	 */
+	public static QcertData sort_nth(Collection<String> fields, QcertData e1, QcertData e2) {
+		final long index = RuntimeUtils.asLong(e2);
+		if(index < 0) {
+			return UnaryOperators.dnone;
 		}
-		return new JsonPrimitive(false);
+		return bag_nth(UnaryOperators.topk(fields, Math.min(index, Integer.MAX_VALUE) + 1, e1), e2);
+	}
+	
+	public static QcertData contains(QcertData e1, QcertData e2) {
+		return BoolData.of(asColl(e2).contains(e1));
 	}
 	
-	public static JsonElement stringConcat(JsonElement e1, JsonElement e2) {
-		return new JsonPrimitive(e1.getAsString() + e2.getAsString());
+	public static QcertData stringConcat(QcertData e1, QcertData e2) {
+		return new StringData(e1.getAsString() + e2.getAsString());
 	}
 
-  private static String[] join_helper(JsonArray ec) {
+  private static String[] join_helper(BagData ec) {
     String acc[] = new String[ec.size()];
 		int i = 0;
-		for (JsonElement elem : ec) {
+		for (QcertData elem : ec) {
 			acc[i] = elem.getAsString();
       i++;
 		}
 		return acc;
 	}
-	public static JsonElement stringJoin(JsonElement e1, JsonElement e2) {
-      return new JsonPrimitive(String.join(e1.getAsString(), join_helper(e2.getAsJsonArray())));
+	public static QcertData stringJoin(QcertData e1, QcertData e2) {
+      return new StringData(String.join(e1.getAsString(), join_helper(e2.getAsBag())));
 	}
 
-	public static JsonElement float_plus(JsonElement e1, JsonElement e2) {
+	public static QcertData float_plus(QcertData e1, QcertData e2) {
 		return toDouble(asDouble(e1)+asDouble(e2));
 	}
-	public static JsonElement float_minus(JsonElement e1, JsonElement e2) {
+	public static QcertData float_minus(QcertData e1, QcertData e2) {
 		return toDouble(asDouble(e1)-asDouble(e2));
 	}
-	public static JsonElement float_mult(JsonElement e1, JsonElement e2) {
+	public static QcertData float_mult(QcertData e1, QcertData e2) {
 		return toDouble(asDouble(e1)*asDouble(e2));
 	}
-	public static JsonElement float_divide(JsonElement e1, JsonElement e2) {
+	public static QcertData float_divide(QcertData e1, QcertData e2) {
 		return toDouble(asDouble(e1)/asDouble(e2));
 	}
-	public static JsonElement float_pow(JsonElement e1, JsonElement e2) {
+	public static QcertData float_pow(QcertData e1, QcertData e2) {
 		return toDouble(Math.pow(asDouble(e1),asDouble(e2)));
 	}
-	public static JsonElement float_min(JsonElement e1, JsonElement e2) {
+	public static QcertData float_min(QcertData e1, QcertData e2) {
 		return toDouble(Math.min(asDouble(e1),asDouble(e2)));
 	}
-	public static JsonElement float_max(JsonElement e1, JsonElement e2) {
+	public static QcertData float_max(QcertData e1, QcertData e2) {
 		return toDouble(Math.max(asDouble(e1),asDouble(e2)));
 	}
-	public static JsonElement float_ne(JsonElement e1, JsonElement e2) {
-		return new JsonPrimitive(asDouble(e1)!=asDouble(e2));
+	public static QcertData float_ne(QcertData e1, QcertData e2) {
+		return BoolData.of(asDouble(e1)!=asDouble(e2));
 	}
-	public static JsonElement float_lt(JsonElement e1, JsonElement e2) {
-		return new JsonPrimitive(asDouble(e1)<asDouble(e2));
+	public static QcertData float_lt(QcertData e1, QcertData e2) {
+		return BoolData.of(asDouble(e1)<asDouble(e2));
 	}
-	public static JsonElement float_le(JsonElement e1, JsonElement e2) {
-		return new JsonPrimitive(asDouble(e1)<=asDouble(e2));
+	public static QcertData float_le(QcertData e1, QcertData e2) {
+		return BoolData.of(asDouble(e1)<=asDouble(e2));
 	}
-	public static JsonElement float_gt(JsonElement e1, JsonElement e2) {
-		return new JsonPrimitive(asDouble(e1)>asDouble(e2));
+	public static QcertData float_gt(QcertData e1, QcertData e2) {
+		return BoolData.of(asDouble(e1)>asDouble(e2));
 	}
-	public static JsonElement float_ge(JsonElement e1, JsonElement e2) {
-		return new JsonPrimitive(asDouble(e1)>=asDouble(e2));
+	public static QcertData float_ge(QcertData e1, QcertData e2) {
+		return BoolData.of(asDouble(e1)>=asDouble(e2));
 	}
 
 	
-	public static JsonElement sql_date_plus(JsonElement e1, JsonElement e2) {
-		return null;
+	public static QcertData sql_date_plus(QcertData e1, QcertData e2) {
+		return SqlDateComponent.sql_date_plus(e1, e2);
 	}
-	public static JsonElement sql_date_minus(JsonElement e1, JsonElement e2) {
-		return null;
+	public static QcertData sql_date_minus(QcertData e1, QcertData e2) {
+		return SqlDateComponent.sql_date_minus(e1, e2);
 	}
-	public static JsonElement sql_date_ne(JsonElement e1, JsonElement e2) {
-		return null;
+	public static QcertData sql_date_ne(QcertData e1, QcertData e2) {
+		return SqlDateComponent.sql_date_ne(e1, e2);
 	}
-	public static JsonElement sql_date_lt(JsonElement e1, JsonElement e2) {
-		return null;
+	public static QcertData sql_date_lt(QcertData e1, QcertData e2) {
+		return SqlDateComponent.sql_date_lt(e1, e2);
 	}
-	public static JsonElement sql_date_le(JsonElement e1, JsonElement e2) {
-		return null;
+	public static QcertData sql_date_le(QcertData e1, QcertData e2) {
+		return SqlDateComponent.sql_date_le(e1, e2);
 	}
-		public static JsonElement sql_date_gt(JsonElement e1, JsonElement e2) {
-		return null;
+	public static QcertData sql_date_gt(QcertData e1, QcertData e2) {
+		return SqlDateComponent.sql_date_gt(e1, e2);
 	}
-	public static JsonElement sql_date_ge(JsonElement e1, JsonElement e2) {
-		return null;
+	public static QcertData sql_date_ge(QcertData e1, QcertData e2) {
+		return SqlDateComponent.sql_date_ge(e1, e2);
 	}
-	public static JsonElement sql_date_interval_between(JsonElement e1, JsonElement e2) {
-		return null;
+	public static QcertData sql_date_interval_between(QcertData e1, QcertData e2) {
+		return SqlDateComponent.sql_date_period_between(e1, e2);
 	}
 
 }
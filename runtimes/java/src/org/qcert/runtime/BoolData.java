@@ -0,0 +1,40 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.runtime;
+
+/**
+ * Represents the dbool data constructor.
+ * The only instances are {@link QcertData#TRUE} and {@link QcertData#FALSE}.
+ */
+public final class BoolData extends QcertData {
+	private final boolean value;
+
+	BoolData(boolean value) {
+		this.value = value;
+	}
+
+	public static BoolData of(boolean value) {
+		return value ? TRUE : FALSE;
+	}
+
+	@Override
+	public Kind getKind() {
+		return Kind.dbool;
+	}
+
+	@Override
+	public boolean getAsBoolean() {
+		return value;
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.runtime;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Represents the dbrand data constructor.
+ */
+public final class BrandData extends QcertData {
+	private final Brands brands;
+	private final QcertData data;
+	// See DataHasher.fingerprint; zero until computed
+	private volatile long fingerprint = 0;
+
+	public BrandData(Collection<String> brands, QcertData data) {
+		this(Brands.intern(brands), data);
+	}
+
+	public BrandData(Brands brands, QcertData data) {
+		this.brands = brands;
+		this.data = data;
+	}
+
+	@Override
+	public Kind getKind() {
+		return Kind.dbrand;
+	}
+
+	public List<String> getBrands() {
+		return brands.getNames();
+	}
+
+	public Brands getBrandSet() {
+		return brands;
+	}
+
+	String[] sortedBrands() {
+		return brands.getSorted();
+	}
+
+	long fingerprint() {
+		long fp = fingerprint;
+		if(fp == 0) {
+			fp = DataHasher.computeFingerprint(this);
+			fingerprint = fp;
+		}
+		return fp;
+	}
+
+	public QcertData getData() {
+		return data;
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.qcert.runtime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The brands of a branded value.
+ * Brand lists come from the data, so the table that interns them is
+ * bounded, and cleared when it is full: brands are then equal if they have
+ * the same names, whether or not they are the same instance.
+ * The brands of an inheritance hierarchy have a dense int id, used by
+ * {@link Inheritance}; other brands have none.
+ */
+public final class Brands {
+	private static final int MAX_LISTS = 1 << 12;
+	private static final int NO_ID = -1;
+	private static final ConcurrentHashMap<List<String>, Brands> lists = new ConcurrentHashMap<List<String>, Brands>();
+	// Only the brands of hierarchies, so it is bounded by the size of the code
+	private static final ConcurrentHashMap<String, Integer> brandIds = new ConcurrentHashMap<String, Integer>();
+	private static final AtomicInteger nextId = new AtomicInteger();
+
+	private final List<String> names;
+	// The id of each name, NO_ID until the brand is in a hierarchy
+	private final int[] ids;
+	// The names in order, for comparisons
+	private final String[] sorted;
+
+	private Brands(List<String> names) {
+		this.names = names;
+		this.ids = new int[names.size()];
+		for(int i = 0; i < ids.length; i ++) {
+			ids[i] = id(names.get(i));
+		}
+		this.sorted = names.toArray(new String[names.size()]);
+		Arrays.sort(sorted);
+	}
+
+	/**
+	 * @return the shared instance for these brands, in this order
+	 */
+	public static Brands intern(Collection<String> names) {
+		final List<String> key = names instanceof List ? (List<String>) names : new ArrayList<String>(names);
+		Brands brands = lists.get(key);
+		if(brands == null) {
+			final Brands fresh = new Brands(Collections.unmodifiableList(new ArrayList<String>(names)));
+			if(lists.size() >= MAX_LISTS) {
+				lists.clear();
+			}
+			brands = lists.putIfAbsent(fresh.names, fresh);
+			if(brands == null) {
+				brands = fresh;
+			}
+		}
+		return brands;
+	}
+
+	/**
+	 * Gives an id to a brand of a hierarchy; ids are dense, starting from 0
+	 * @return the id of the brand
+	 */
+	static int register(String brand) {
+		Integer id = brandIds.get(brand);
+		if(id == null) {
+			synchronized(brandIds) {
+				id = brandIds.get(brand);
+				if(id == null) {
+					id = nextId.getAndIncrement();
+					brandIds.put(brand, id);
+				}
+			}
+		}
+		return id;
+	}
+
+	private static int id(String brand) {
+		final Integer id = brandIds.get(brand);
+		return id == null ? NO_ID : id;
+	}
+
+	public List<String> getNames() {
+		return names;
+	}
+
+	/**
+	 * @return the id of the i-th brand, or a negative number if it is in no hierarchy
+	 */
+	int getId(int i) {
+		// the brand may have been registered since these brands were interned
+		if(ids[i] == NO_ID) {
+			ids[i] = id(names.get(i));
+		}
+		return ids[i];
+	}
+
+	String[] getSorted() {
+		return sorted;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return this == other || (other instanceof Brands && names.equals(((Brands) other).names));
+	}
+
+	@Override
+	public int hashCode() {
+		return names.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return names.toString();
+	}
+}
@@ -0,0 +1,227 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.qcert.runtime;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * The text of data, as given by the tostring and totext operators.
+ * Records are written in the order of their shape, which is already the
+ * order of their field names.  The elements of a bag are written in the
+ * (string) order of their texts: they are written once, next to each other
+ * in a single buffer, and the regions of the buffer are then sorted, so no
+ * string is built per element.
+ * Foreign values are written as their JSON form, with the numbers as
+ * floats, as for any JSON object.
+ */
+final class CanonicalText {
+
+	private CanonicalText() {
+	}
+
+	static String toText(QcertData d) {
+		final StringBuilder sb = new StringBuilder();
+		write(sb, d);
+		return sb.toString();
+	}
+
+	static void write(Appendable out, QcertData d) {
+		try {
+			writeTo(out, d);
+		} catch(IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void writeTo(Appendable out, QcertData d) throws IOException {
+		switch(d.getKind()) {
+		case dunit:
+			out.append("null");
+			break;
+		case dbool:
+			out.append(d.getAsBoolean() ? "true" : "false");
+			break;
+		case dnat:
+			out.append(Long.toString(d.getAsLong()));
+			break;
+		case dfloat:
+			out.append(Double.toString(d.getAsDouble()));
+			break;
+		case dstring:
+			out.append(d.getAsString());
+			break;
+		case dcoll:
+			if(out instanceof StringBuilder) {
+				write((StringBuilder) out, d.getAsBag());
+			} else {
+				// bags are sorted, so they need to be buffered
+				final StringBuilder sb = new StringBuilder();
+				write(sb, d.getAsBag());
+				out.append(sb);
+			}
+			break;
+		case drec:
+			final RecData rec = d.getAsRec();
+			out.append('{');
+			for(int i = 0; i < rec.size(); i ++) {
+				if(i > 0) {
+					out.append(", ");
+				}
+				out.append(rec.getName(i)).append("->");
+				writeTo(out, rec.getValue(i));
+			}
+			out.append('}');
+			break;
+		case dleft:
+			out.append("{$left->");
+			writeTo(out, ((LeftData) d).getValue());
+			out.append('}');
+			break;
+		case dright:
+			out.append("{$right->");
+			writeTo(out, ((RightData) d).getValue());
+			out.append('}');
+			break;
+		case dbrand:
+			final BrandData bd = (BrandData) d;
+			out.append('<');
+			boolean first = true;
+			for(final String brand : bd.getBrands()) {
+				if(! first) {
+					out.append(',');
+				}
+				out.append(brand);
+				first = false;
+			}
+			out.append(':');
+			writeTo(out, bd.getData());
+			out.append('>');
+			break;
+		case dforeign:
+			writeJson(out, ((ForeignData) d).toJson());
+			break;
+		default:
+			out.append(d.toString());
+		}
+	}
+
+	private static void writeJson(Appendable out, JsonElement e) throws IOException {
+		if(e == null || e.isJsonNull()) {
+			out.append("null");
+		} else if(e.isJsonPrimitive()) {
+			final JsonPrimitive jp = e.getAsJsonPrimitive();
+			if(jp.isString()) {
+				out.append(jp.getAsString());
+			} else if(jp.isNumber()) {
+				out.append(Double.toString(jp.getAsDouble()));
+			} else {
+				out.append(jp.toString());
+			}
+		} else if(e.isJsonArray()) {
+			final JsonArray arr = e.getAsJsonArray();
+			final String[] texts = new String[arr.size()];
+			for(int i = 0; i < texts.length; i ++) {
+				final StringBuilder sb = new StringBuilder();
+				writeJson(sb, arr.get(i));
+				texts[i] = sb.toString();
+			}
+			Arrays.sort(texts);
+			out.append('[').append(String.join(", ", texts)).append(']');
+		} else {
+			final JsonObject obj = e.getAsJsonObject();
+			out.append('{');
+			boolean first = true;
+			final TreeMap<String, JsonElement> fields = new TreeMap<String, JsonElement>();
+			for(final Map.Entry<String, JsonElement> entry : obj.entrySet()) {
+				fields.put(entry.getKey(), entry.getValue());
+			}
+			for(final Map.Entry<String, JsonElement> entry : fields.entrySet()) {
+				if(! first) {
+					out.append(", ");
+				}
+				out.append(entry.getKey()).append("->");
+				writeJson(out, entry.getValue());
+				first = false;
+			}
+			out.append('}');
+		}
+	}
+
+	static void write(StringBuilder sb, BagData bag) {
+		final int size = bag.size();
+		sb.append('[');
+		if(size == 1) {
+			write(sb, bag.get(0));
+		} else if(size > 1) {
+			// the texts of the elements, one after the other, at the end of the buffer
+			final int base = sb.length();
+			final int[] starts = new int[size];
+			final int[] ends = new int[size];
+			int i = 0;
+			for(final QcertData elem : bag) {
+				starts[i] = sb.length();
+				write(sb, elem);
+				ends[i ++] = sb.length();
+			}
+			final Integer[] order = new Integer[size];
+			for(i = 0; i < size; i ++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer elem1, Integer elem2) {
+					return compareRegions(sb, starts, ends, elem1, elem2);
+				}
+			});
+			// the sorted texts are copied after the unsorted ones, which are then removed
+			final int unsorted = sb.length();
+			for(i = 0; i < size; i ++) {
+				if(i > 0) {
+					sb.append(", ");
+				}
+				sb.append(sb, starts[order[i]], ends[order[i]]);
+			}
+			sb.delete(base, unsorted);
+		}
+		sb.append(']');
+	}
+
+	/*
+	 * String order on the texts of two elements
+	 */
+	private static int compareRegions(CharSequence texts, int[] starts, int[] ends, int elem1, int elem2) {
+		int i1 = starts[elem1];
+		int i2 = starts[elem2];
+		final int end1 = ends[elem1];
+		final int end2 = ends[elem2];
+		while(i1 < end1 && i2 < end2) {
+			final int c = Character.compare(texts.charAt(i1 ++), texts.charAt(i2 ++));
+			if(c != 0) {
+				return c;
+			}
+		}
+		return Integer.compare(end1 - i1, end2 - i2);
+	}
+}
@@ -0,0 +1,225 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.runtime;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A bag made of other bags, which are linked rather than copied.
+ * This makes union and flatten constant time (per part), however deeply
+ * they are nested.  Indexed access goes through a flat index of the
+ * underlying chunks, which is computed once, on demand.
+ */
+final class ConcatBagData extends BagData {
+	// None of the parts are empty
+	private final BagData[] parts;
+	private final int size;
+	private volatile Index index;
+
+	private static final class Index {
+		final BagData[] chunks;
+		// starts[i] is the position of the first element of chunks[i]
+		final int[] starts;
+
+		Index(BagData[] chunks, int[] starts) {
+			this.chunks = chunks;
+			this.starts = starts;
+		}
+	}
+
+	private ConcatBagData(BagData[] parts, int size) {
+		this.parts = parts;
+		this.size = size;
+	}
+
+	static BagData concat(BagData b1, BagData b2) {
+		if(b1 instanceof LazyBagData || b2 instanceof LazyBagData) {
+			// Keep streaming rather than forcing the lazy bags
+			return RuntimeUtils.createBag(b1, b2).flatMap(QcertData::getAsBag);
+		} else if(b1.size() == 0) {
+			return b2;
+		} else if(b2.size() == 0) {
+			return b1;
+		} else {
+			return new ConcatBagData(new BagData[] { b1, b2 }, Math.addExact(b1.size(), b2.size()));
+		}
+	}
+
+	static BagData concat(List<BagData> bags) {
+		final ArrayList<BagData> parts = new ArrayList<BagData>(bags.size());
+		int size = 0;
+		for(final BagData bag : bags) {
+			if(bag.size() > 0) {
+				parts.add(bag);
+				size = Math.addExact(size, bag.size());
+			}
+		}
+		switch(parts.size()) {
+		case 0:
+			return EMPTY;
+		case 1:
+			return parts.get(0);
+		default:
+			return new ConcatBagData(parts.toArray(new BagData[parts.size()]), size);
+		}
+	}
+
+	private Index getIndex() {
+		Index idx = index;
+		if(idx == null) {
+			// explicit stack, since nested unions can be arbitrarily deep
+			final ArrayList<BagData> chunks = new ArrayList<BagData>();
+			final Deque<BagData> todo = new ArrayDeque<BagData>();
+			todo.push(this);
+			while(! todo.isEmpty()) {
+				final BagData bag = todo.pop();
+				if(bag instanceof ConcatBagData) {
+					final BagData[] subparts = ((ConcatBagData) bag).parts;
+					for(int i = subparts.length - 1; i >= 0; i --) {
+						todo.push(subparts[i]);
+					}
+				} else {
+					chunks.add(bag);
+				}
+			}
+			final int[] starts = new int[chunks.size()];
+			int start = 0;
+			for(int i = 0; i < starts.length; i ++) {
+				starts[i] = start;
+				start += chunks.get(i).size();
+			}
+			idx = new Index(chunks.toArray(new BagData[chunks.size()]), starts);
+			index = idx;
+		}
+		return idx;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public QcertData get(int i) {
+		if(i < 0 || i >= size) {
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+		}
+		final Index idx = getIndex();
+		int chunk = Arrays.binarySearch(idx.starts, i);
+		if(chunk < 0) {
+			chunk = -chunk - 2;
+		}
+		return idx.chunks[chunk].get(i - idx.starts[chunk]);
+	}
+
+	@Override
+	public QcertData[] toArray() {
+		final QcertData[] dst = new QcertData[size];
+		int pos = 0;
+		for(final BagData chunk : getIndex().chunks) {
+			final QcertData[] src = chunk.toArray();
+			System.arraycopy(src, 0, dst, pos, src.length);
+			pos += src.length;
+		}
+		return dst;
+	}
+
+	@Override
+	public Iterator<QcertData> iterator() {
+		final Iterator<BagData> chunks = Arrays.asList(getIndex().chunks).iterator();
+		return new Iterator<QcertData>() {
+			private Iterator<QcertData> current = Collections.emptyIterator();
+
+			@Override
+			public boolean hasNext() {
+				while(! current.hasNext() && chunks.hasNext()) {
+					current = chunks.next().iterator();
+				}
+				return current.hasNext();
+			}
+
+			@Override
+			public QcertData next() {
+				hasNext();
+				return current.next();
+			}
+		};
+	}
+
+	@Override
+	long sumLong() {
+		long acc = 0;
+		for(final BagData chunk : getIndex().chunks) {
+			acc += chunk.sumLong();
+		}
+		return acc;
+	}
+
+	@Override
+	long minLong() {
+		long min = Long.MAX_VALUE;
+		for(final BagData chunk : getIndex().chunks) {
+			min = Math.min(min, chunk.minLong());
+		}
+		return min;
+	}
+
+	@Override
+	long maxLong() {
+		long max = Long.MIN_VALUE;
+		for(final BagData chunk : getIndex().chunks) {
+			max = Math.max(max, chunk.maxLong());
+		}
+		return max;
+	}
+
+	@Override
+	double sumDouble(double acc) {
+		// a single sum across the chunks, rather than a sum of partial sums
+		for(final BagData chunk : getIndex().chunks) {
+			acc = chunk.sumDouble(acc);
+		}
+		return acc;
+	}
+
+	@Override
+	double minDouble() {
+		double min = Double.MAX_VALUE;
+		for(final BagData chunk : getIndex().chunks) {
+			final double d = chunk.minDouble();
+			if(d < min) {
+				min = d;
+			}
+		}
+		return min;
+	}
+
+	@Override
+	double maxDouble() {
+		double max = -Double.MAX_VALUE;
+		for(final BagData chunk : getIndex().chunks) {
+			final double d = chunk.maxDouble();
+			if(d > max) {
+				max = d;
+			}
+		}
+		return max;
+	}
+}
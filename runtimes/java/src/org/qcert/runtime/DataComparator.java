@@ -14,132 +14,43 @@
 
 package org.qcert.runtime;
 
-import java.time.DateTimeException;
-import java.time.ZonedDateTime;
-import java.util.Arrays;
 import java.util.Comparator;
-import java.util.Iterator;
-import java.util.TreeMap;
-import java.util.Map.Entry;
 
-import com.google.gson.*;
-import com.google.gson.internal.LazilyParsedNumber;
-
-public final class DataComparator implements Comparator<JsonElement> {
+public final class DataComparator implements Comparator<QcertData> {
 
 	private DataComparator() {
 	}
 	
-	private enum DType {
-		// java null
-		DT_JNULL,
-		// JsonNull
-		DT_NULL,
-		DT_BOOL,
-		DT_LONG,
-		DT_BOXED_LONG,
-		DT_DOUBLE,
-		DT_STRING,
-		DT_REC,
-		DT_COLL,
-		// Lazily parsed number
-		DT_LAZYNUM
-	}
-		
-	
-	private static DType getType(JsonElement obj) {
-		if(obj == null) {
-			return DType.DT_JNULL;
-		} else if(obj.isJsonNull()) {
-			return DType.DT_NULL;
-		} else if(obj.isJsonPrimitive()) {
-			final JsonPrimitive prim = obj.getAsJsonPrimitive();
-			if(prim.isBoolean()) {
-				return DType.DT_BOOL;
-			} else if(prim.isString()) {
-				return DType.DT_STRING;
-			} else if(prim.isNumber()) {
-				final Number num = prim.getAsNumber();
-				if (num instanceof LazilyParsedNumber) {
-				    return DType.DT_LAZYNUM;
-				} else if(num instanceof Long || num instanceof Short || num instanceof Integer) {
-				    return DType.DT_LONG;
-				} else if(num instanceof Double || num instanceof Short || num instanceof Float) {
-				    return DType.DT_DOUBLE;
-				} else {
-				    throw new RuntimeException("Unknown primitive json number type: " + num + " of type " + num.getClass());
-				}
-			} else {
-				throw new RuntimeException("Unknown primitive json type: " + prim);
-			}
-		} else if(obj.isJsonArray()) {
-			return DType.DT_COLL;
-		} else if(obj.isJsonObject()) {
-		        if(((JsonObject) obj).has("$nat")) { return DType.DT_BOXED_LONG; }
-			else { return DType.DT_REC;}
-		} else {
-			throw new RuntimeException("Unknown json type: " + obj + " of type " + obj.getClass());
-		}	
-	}
-
-	private static TreeMap<String, JsonElement> recToTreeMap(JsonObject obj) {
-		final TreeMap<String, JsonElement> dst = new TreeMap<String, JsonElement>();
-		for(Entry<String, JsonElement> entry : obj.entrySet()) {
-			dst.put(entry.getKey(), entry.getValue());
-		}
-		return dst;		
-	}
-	
-	private static int compareKeys (Iterator<String> keys1, Iterator<String> keys2) {
-		while(keys1.hasNext()) {
-			if(! keys2.hasNext()) {
-				return 1;
-			}
-			String k1 = keys1.next();
-			String k2 = keys2.next();
-			int kcompare = k1.compareTo(k2);
-			if(kcompare != 0) {
-				return kcompare;
-			}
-		}
-		if(keys2.hasNext()) {
-			return -1;
+	/*
+	 * nats and floats are compared by value, so they share a rank
+	 */
+	private static int kindRank(QcertData.Kind kind) {
+		if(kind == QcertData.Kind.dfloat) {
+			return QcertData.Kind.dnat.ordinal();
 		} else {
-			return 0;
+			return kind.ordinal();
 		}
 	}
-	
+
 	/*
 	 * We need the comparison to be transitive, which makes this a bit tricky.
-	 * We could probably do this without the intermediate map,
-	 * but this is simpler and suffices for now.
+	 * Records keep their fields sorted, so we can walk them in order.
 	 */
-	public int compare(JsonObject o1, JsonObject o2) {
+	public int compare(RecData o1, RecData o2) {
 		final int sizeCompare = Integer.compare(o1.size(), o2.size());
 		if(sizeCompare != 0) {
 			return sizeCompare;
 		}
 		
-		TreeMap<String, JsonElement> map1 = recToTreeMap(o1);
-		TreeMap<String, JsonElement> map2 = recToTreeMap(o2);
-		
-		// it is important for transitivity that the keys are sorted first, 
-		// which the TreeMap does for us
-		final int keyComp = compareKeys(map1.keySet().iterator(), map2.keySet().iterator());
+		// it is important for transitivity that the keys are sorted first
+		final int keyComp = o1.getShape().compareNames(o2.getShape());
 		if(keyComp != 0) {
 			return keyComp;
-		} else {
-			// they have identical keys
 		}
 		
-		Iterator<Entry<String, JsonElement>> iter1 = map1.entrySet().iterator();
-		Iterator<Entry<String, JsonElement>> iter2 = map2.entrySet().iterator();
-		while(iter1.hasNext()) {
-			assert(iter2.hasNext());
-			Entry<String, JsonElement> entry1 = iter1.next();
-			Entry<String, JsonElement> entry2 = iter2.next();
-			assert(entry1.getKey().equals(entry2.getKey()));
-			int elemcomp = this.compare(entry1.getValue(), entry2.getValue());
+		// they have identical keys
+		for(int i = 0; i < o1.size(); i ++) {
+			int elemcomp = this.compare(o1.getValue(i), o2.getValue(i));
 			if(elemcomp != 0) {
 				return elemcomp;
 			}
@@ -148,7 +59,7 @@ public final class DataComparator implements Comparator<JsonElement> {
 		return 0;
 	}
 
-	public int compare(JsonArray o1, JsonArray o2) {
+	public int compare(BagData o1, BagData o2) {
 		final int len1 = o1.size();
 		final int len2 = o2.size();
 		final int sizeCompare = Integer.compare(len1, len2);
@@ -156,14 +67,12 @@ public final class DataComparator implements Comparator<JsonElement> {
 			return sizeCompare;
 		}
 
-		// the lengths are equal
-		final JsonElement[] arr1 = RuntimeUtils.collAsArray(o1);
-		final JsonElement[] arr2 = RuntimeUtils.collAsArray(o2);
-		Arrays.sort(arr1, this);
-		Arrays.sort(arr2, this);
+		// the lengths are equal, compare the canonical (sorted) views
+		final QcertData[] arr1 = o1.sorted();
+		final QcertData[] arr2 = o2.sorted();
 		for(int i = 0; i < arr1.length; i ++) {
-			final JsonElement elem1 = arr1[i];
-			final JsonElement elem2 = arr2[i];
+			final QcertData elem1 = arr1[i];
+			final QcertData elem2 = arr2[i];
 			final int elemcomp = compare(elem1, elem2);
 			if(elemcomp != 0) {
 				return elemcomp;
@@ -172,91 +81,78 @@ public final class DataComparator implements Comparator<JsonElement> {
 		return 0;
 	}
 
+	/*
+	 * Brands are compared as a bag of strings
+	 */
+	private int compare(BrandData o1, BrandData o2) {
+		final String[] arr1 = o1.sortedBrands();
+		final String[] arr2 = o2.sortedBrands();
+		final int sizeCompare = Integer.compare(arr1.length, arr2.length);
+		if(sizeCompare != 0) {
+			return sizeCompare;
+		}
+		for(int i = 0; i < arr1.length; i ++) {
+			final int brcomp = arr1[i].compareTo(arr2[i]);
+			if(brcomp != 0) {
+				return brcomp;
+			}
+		}
+		return compare(o1.getData(), o2.getData());
+	}
+
+	private int compare(ForeignData o1, ForeignData o2) {
+		if(o1.getClass() != o2.getClass()) {
+			return o1.getClass().getName().compareTo(o2.getClass().getName());
+		}
+		return o1.compareTo(o2);
+	}
+
 	/** Note: this comparator
 	 * imposes orderings that are inconsistent with equals.
 	 */
 	@Override
-	public int compare(JsonElement o1, JsonElement o2) {
+	public int compare(QcertData o1, QcertData o2) {
 		// short-circuit in this case
 		if(o1 == o2) {
 			return 0;
 		}
 
-		DType typ1 = getType(o1);
-		DType typ2 = getType(o2);
+		final QcertData.Kind typ1 = o1.getKind();
+		final QcertData.Kind typ2 = o2.getKind();
 
-		// For lazily parsed numbers, check type of other operand and try and coerce
-		if (typ1 == DType.DT_LAZYNUM) {
-		    switch (typ2) {
-		    case DT_LONG:
-		        return Long.compare(o1.getAsLong(),o2.getAsLong());
-		    case DT_BOXED_LONG:
- 	 	        return Long.compare(((JsonObject) o1).get("$nat").getAsLong(),
-					    ((JsonObject) o2).get("$nat").getAsLong());
-		    case DT_DOUBLE:
-			return Double.compare(o1.getAsDouble(), o2.getAsDouble());
-		    case DT_LAZYNUM:
-			// Tricky here... there is no way to know what to coerce to,
-			// underlying gson code relies on string equality, hence so do we
-			typ1 = DType.DT_STRING;
-			typ2 = DType.DT_STRING;
-		    }
-		} else if (typ2 == DType.DT_LAZYNUM) {
-		    switch (typ1) {
-		    case DT_LONG:
-		        return Long.compare(o1.getAsLong(),o2.getAsLong());
-		    case DT_BOXED_LONG:
- 	 	        return Long.compare(((JsonObject) o1).get("$nat").getAsLong(),
-					    ((JsonObject) o2).get("$nat").getAsLong());
-		    case DT_DOUBLE:
-			return Double.compare(o1.getAsDouble(), o2.getAsDouble());
-		    }
-		}
-
-		final int typCompare = typ1.compareTo(typ2);
+		final int typCompare = Integer.compare(kindRank(typ1), kindRank(typ2));
 		if(typCompare != 0) {
 			return typCompare;
 		}
 
 		switch (typ1) {
-		case DT_JNULL:
-		case DT_NULL:
+		case dunit:
 			return 0;
-		case DT_BOOL:
+		case dbool:
 			return Boolean.compare(o1.getAsBoolean(), o2.getAsBoolean());
-		case DT_STRING:
-			String str1 = o1.getAsString();
-			String str2 = o2.getAsString();
-			// TODO
-			// WARNING 
-			// HACK
-			// special hack for dates.
-			// what could go wrong??? :-D
-			// of course, this breaks the transitivity of compareTo
-			// sigh...
-			// a real solution to this is a bit challenging
-			// since we need type information
-			// or a wrapper around date times.
-			try {
-				final ZonedDateTime date1 = ZonedDateTime.parse(str1);
-				final ZonedDateTime date2 = ZonedDateTime.parse(str2);
-				// if they are both parseable as dates, we will compare them as dates
-				return date1.toInstant().compareTo(date2.toInstant());
-			} catch(DateTimeException e) {
-				// If they are not both parseable as dates, just compare them as strings
-				return str1.compareTo(str2); 
+		case dstring:
+			// Strings compare lexicographically, as in the Coq semantics;
+			// dates are compared by value as DateData.
+			return o1.getAsString().compareTo(o2.getAsString());
+		case dnat:
+		case dfloat:
+			if(typ1 == QcertData.Kind.dnat && typ2 == QcertData.Kind.dnat) {
+				return Long.compare(o1.getAsLong(), o2.getAsLong());
+			} else {
+				return Double.compare(o1.getAsDouble(), o2.getAsDouble());
 			}
-		case DT_LONG:
-		        return Long.compare(o1.getAsLong(),o2.getAsLong());
-		case DT_BOXED_LONG:
- 	 	        return Long.compare(((JsonObject) o1).get("$nat").getAsLong(),
-					    ((JsonObject) o2).get("$nat").getAsLong());
-		case DT_DOUBLE:
-			return Double.compare(o1.getAsDouble(), o2.getAsDouble());
-		case DT_COLL:
-			return compare(o1.getAsJsonArray(), o2.getAsJsonArray());
-		case DT_REC:
-			return compare(o1.getAsJsonObject(), o2.getAsJsonObject());
+		case dcoll:
+			return compare(o1.getAsBag(), o2.getAsBag());
+		case drec:
+			return compare(o1.getAsRec(), o2.getAsRec());
+		case dleft:
+			return compare(((LeftData) o1).getValue(), ((LeftData) o2).getValue());
+		case dright:
+			return compare(((RightData) o1).getValue(), ((RightData) o2).getValue());
+		case dbrand:
+			return compare((BrandData) o1, (BrandData) o2);
+		case dforeign:
+			return compare((ForeignData) o1, (ForeignData) o2);
 		default:
 			// We should never get here.
 			// but if we do, we can use toString to give
@@ -265,6 +161,22 @@ public final class DataComparator implements Comparator<JsonElement> {
 		}
 	}
 	
+	/**
+	 * Equality, that is compare(o1, o2) == 0.
+	 * Records, bags and brands whose fingerprints differ (see DataHasher),
+	 * and distinct strings of the same dictionary (see StringData), are
+	 * told apart without walking them.
+	 */
+	public boolean equal(QcertData o1, QcertData o2) {
+		if(o1 == o2) {
+			return true;
+		} else if(o1 instanceof StringData && o2 instanceof StringData
+				&& StringData.distinct((StringData) o1, (StringData) o2)) {
+			return false;
+		}
+		return DataHasher.mayBeEqual(o1, o2) && compare(o1, o2) == 0;
+	}
+
 	public static DataComparator getComparator() {
 		return comparator;
 	}
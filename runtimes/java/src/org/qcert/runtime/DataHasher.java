@@ -0,0 +1,170 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.runtime;
+
+
+/**
+ * A hash function on data that agrees with {@link DataComparator}:
+ * data that compare equal have the same hash.
+ * In particular bags are hashed regardless of the order of their elements,
+ * and nats and floats hash the same when they have the same numeric value.
+ * Numbers in the JSON input ({"$nat": n}, plain or lazily parsed numbers)
+ * are already unified by {@link JsonConverter}.
+ */
+public final class DataHasher {
+
+	private DataHasher() {
+	}
+
+	/*
+	 * Spreads the bits of a hash, so that sums of hashes (used for
+	 * unordered data) do not cancel out easily
+	 */
+	private static int mix(int h) {
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	public static int hash(QcertData d) {
+		switch(d.getKind()) {
+		case dunit:
+			return 0x2c1b3c6d;
+		case dbool:
+			return d.getAsBoolean() ? 1231 : 1237;
+		case dnat:
+			// as a double, since the comparator compares nats and floats as doubles
+			return Double.hashCode((double) d.getAsLong());
+		case dfloat:
+			return Double.hashCode(d.getAsDouble());
+		case dstring:
+			return hash((StringData) d);
+		case drec:
+		case dcoll:
+		case dleft:
+		case dright:
+		case dbrand:
+			// folded from the fingerprint, which records, bags and brands cache
+			final long fp = fingerprint(d);
+			return (int) (fp ^ (fp >>> 32));
+		case dforeign:
+			return 31 * d.getClass().getName().hashCode() + d.hashCode();
+		default:
+			throw new RuntimeException("Unknown data kind: " + d.getKind());
+		}
+	}
+
+	/*
+	 * The 64-bit finalizer of MurmurHash3
+	 */
+	private static long mix64(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * A 64-bit structural fingerprint, which agrees with {@link DataComparator}
+	 * in the same way as {@link #hash}: data with different fingerprints are
+	 * not equal.  Records, bags and brands compute theirs at most once.
+	 */
+	public static long fingerprint(QcertData d) {
+		switch(d.getKind()) {
+		case drec:
+			return d.getAsRec().fingerprint();
+		case dcoll:
+			return d.getAsBag().fingerprint();
+		case dleft:
+			return mix64(31 * fingerprint(((LeftData) d).getValue()) + 1);
+		case dright:
+			return mix64(31 * fingerprint(((RightData) d).getValue()) + 2);
+		case dbrand:
+			return ((BrandData) d).fingerprint();
+		case dnat:
+			return mix64(Double.doubleToLongBits((double) d.getAsLong()));
+		case dfloat:
+			return mix64(Double.doubleToLongBits(d.getAsDouble()));
+		case dstring:
+			return fingerprint((StringData) d);
+		default:
+			return mix64(hash(d));
+		}
+	}
+
+	/*
+	 * False only if the data are certainly different.  Only the cached
+	 * fingerprints are used: for other data the comparison is as cheap.
+	 */
+	static boolean mayBeEqual(QcertData d1, QcertData d2) {
+		return ! (isCached(d1) && isCached(d2)) || fingerprint(d1) == fingerprint(d2);
+	}
+
+	private static boolean isCached(QcertData d) {
+		final QcertData.Kind kind = d.getKind();
+		return kind == QcertData.Kind.drec || kind == QcertData.Kind.dcoll || kind == QcertData.Kind.dbrand;
+	}
+
+	/* Zero is left for fingerprints that are not computed yet */
+	private static long nonZero(long fp) {
+		return fp == 0 ? 1 : fp;
+	}
+
+	/*
+	 * Records keep their fields sorted, so hashing them in order does not
+	 * depend on the order in which they were built
+	 */
+	static long computeFingerprint(RecData rec) {
+		long h = 1;
+		for(int i = 0; i < rec.size(); i ++) {
+			h = 31 * h + rec.getName(i).hashCode();
+			h = 31 * h + fingerprint(rec.getValue(i));
+		}
+		return nonZero(mix64(h));
+	}
+
+	static long computeFingerprint(BagData bag) {
+		long h = 0;
+		for(final QcertData elem : bag) {
+			h += mix64(fingerprint(elem));
+		}
+		return nonZero(mix64(31 * h + bag.size()));
+	}
+
+	static long computeFingerprint(BrandData bd) {
+		long brands = 0;
+		for(final String br : bd.getBrands()) {
+			brands += mix64(br.hashCode());
+		}
+		return nonZero(mix64(31 * brands + fingerprint(bd.getData())));
+	}
+
+	private static long fingerprint(StringData s) {
+		final String str = s.getAsString();
+		long h = str.length();
+		for(int i = 0; i < str.length(); i ++) {
+			h = 1099511628211L * h + str.charAt(i);
+		}
+		return mix64(h);
+	}
+
+	private static int hash(StringData s) {
+		return s.getAsString().hashCode();
+	}
+}
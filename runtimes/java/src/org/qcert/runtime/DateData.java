@@ -0,0 +1,75 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.runtime;
+
+import java.time.LocalDate;
+
+import com.google.gson.*;
+
+/**
+ * Foreign data for SQL dates, encoded in JSON as
+ * {"$foreign": {"$date": {"year": y, "month": m, "day": d}}}
+ * Dates are stored as a number of days since the epoch, so comparing them
+ * is comparing longs.
+ */
+public final class DateData extends ForeignData {
+	private final long epochDay;
+
+	public DateData(long epochDay) {
+		this.epochDay = epochDay;
+	}
+
+	public DateData(LocalDate date) {
+		this(date.toEpochDay());
+	}
+
+	public long getEpochDay() {
+		return epochDay;
+	}
+
+	public LocalDate getDate() {
+		return LocalDate.ofEpochDay(epochDay);
+	}
+
+	@Override
+	public int compareTo(ForeignData other) {
+		return Long.compare(epochDay, ((DateData) other).epochDay);
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(epochDay);
+	}
+
+	@Override
+	public JsonElement toJson() {
+		final LocalDate date = getDate();
+		final JsonObject result = new JsonObject();
+		final JsonObject resultIn = new JsonObject();
+		final JsonObject resultIn2 = new JsonObject();
+		resultIn2.add("year", new JsonPrimitive(date.getYear()));
+		resultIn2.add("month", new JsonPrimitive(date.getMonthValue()));
+		resultIn2.add("day", new JsonPrimitive(date.getDayOfMonth()));
+		resultIn.add("$date", resultIn2);
+		result.add("$foreign", resultIn);
+		return result;
+	}
+
+	static DateData fromJson(JsonObject d) {
+		final int year = d.get("year").getAsInt();
+		final int month = d.get("month").getAsInt();
+		final int day = d.get("day").getAsInt();
+		return new DateData(LocalDate.of(year, month, day));
+	}
+}
@@ -0,0 +1,67 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.runtime;
+
+/**
+ * A bag of floats, stored unboxed
+ */
+final class DoubleBagData extends BagData {
+	private final double[] values;
+
+	DoubleBagData(double[] values) {
+		this.values = values;
+	}
+
+	@Override
+	public int size() {
+		return values.length;
+	}
+
+	@Override
+	public QcertData get(int i) {
+		return FloatData.of(values[i]);
+	}
+
+	@Override
+	double sumDouble(double acc) {
+		for(int i = 0; i < values.length; i ++) {
+			acc += values[i];
+		}
+		return acc;
+	}
+
+	@Override
+	double minDouble() {
+		// NaNs are skipped, and of 0.0 and -0.0 the first one is kept
+		double min = Double.MAX_VALUE;
+		for(int i = 0; i < values.length; i ++) {
+			if(values[i] < min) {
+				min = values[i];
+			}
+		}
+		return min;
+	}
+
+	@Override
+	double maxDouble() {
+		// NaNs are skipped, and of 0.0 and -0.0 the first one is kept
+		double max = -Double.MAX_VALUE;
+		for(int i = 0; i < values.length; i ++) {
+			if(values[i] > max) {
+				max = values[i];
+			}
+		}
+		return max;
+	}
+}
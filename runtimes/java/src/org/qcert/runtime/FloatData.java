@@ -0,0 +1,63 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.runtime;
+
+/**
+ * Represents the dfloat data constructor.
+ */
+public final class FloatData extends QcertData {
+	private static final int CACHE_LOW = -128;
+	private static final int CACHE_HIGH = 1024;
+	private static final FloatData[] cache = new FloatData[CACHE_HIGH - CACHE_LOW];
+
+	static {
+		for(int i = 0; i < cache.length; i ++) {
+			cache[i] = new FloatData(i + CACHE_LOW);
+		}
+	}
+
+	private final double value;
+
+	private FloatData(double value) {
+		this.value = value;
+	}
+
+	/**
+	 * Small integral values are shared, as for {@link NatData}
+	 * (but not -0.0, which is a different float).
+	 */
+	public static FloatData of(double value) {
+		final int i = (int) value;
+		if(i == value && i >= CACHE_LOW && i < CACHE_HIGH
+				&& (i != 0 || Double.doubleToRawLongBits(value) == 0L)) {
+			return cache[i - CACHE_LOW];
+		}
+		return new FloatData(value);
+	}
+
+	@Override
+	public Kind getKind() {
+		return Kind.dfloat;
+	}
+
+	@Override
+	public long getAsLong() {
+		return (long) value;
+	}
+
+	@Override
+	public double getAsDouble() {
+		return value;
+	}
+}
@@ -0,0 +1,40 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.runtime;
+
+import com.google.gson.JsonElement;
+
+/**
+ * Represents the dforeign data constructor.
+ * Each foreign type provides its own JSON encoding and its own ordering.
+ */
+public abstract class ForeignData extends QcertData {
+	@Override
+	public Kind getKind() {
+		return Kind.dforeign;
+	}
+
+	/**
+	 * Compares with another foreign value of the same class
+	 */
+	public abstract int compareTo(ForeignData other);
+
+	/**
+	 * Must be consistent with compareTo (see {@link DataHasher})
+	 */
+	@Override
+	public abstract int hashCode();
+
+	public abstract JsonElement toJson();
+}
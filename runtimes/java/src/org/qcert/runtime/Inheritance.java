@@ -14,21 +14,34 @@
 
 package org.qcert.runtime;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.google.gson.*;
 
+/**
+ * The brand hierarchy.
+ * Its transitive closure is computed once, as a set of ancestor ids
+ * (see {@link Brands}) per brand, and the result of each cast is cached
+ * for the brands involved.
+ */
 public class Inheritance {
+	// Bounds the number of cast results cached per target brands
+	private static final int CACHE_SIZE = 1024;
+
 	public Inheritance(Map<String, Set<String>> h) {
-		this.inheritance = h;
+		this.ancestors = closure(h);
 	}
 
 	public Inheritance(JsonArray h) {
-		this.inheritance = mkInheritance(h);
+		this(mkInheritance(h));
 	}
 
 	private static Map<String, Set<String>> mkInheritance(JsonArray h) {
@@ -47,6 +60,40 @@ public class Inheritance {
 		return res;
 	}
 
+	/*
+	 * Maps the id of each brand in the hierarchy to the ids of its
+	 * ancestors, including itself
+	 */
+	private static BitSet[] closure(Map<String, Set<String>> h) {
+		final List<int[]> edges = new ArrayList<int[]>();
+		int size = 0;
+		for(final Map.Entry<String, Set<String>> entry : h.entrySet()) {
+			final int sub = Brands.register(entry.getKey());
+			for(final String parent : entry.getValue()) {
+				final int sup = Brands.register(parent);
+				edges.add(new int[] { sub, sup });
+				size = Math.max(size, Math.max(sub, sup) + 1);
+			}
+		}
+		final BitSet[] res = new BitSet[size];
+		for(int i = 0; i < size; i ++) {
+			res[i] = new BitSet(size);
+			res[i].set(i);
+		}
+		// the hierarchy is small, so iterating to a fixpoint is good enough
+		boolean changed = true;
+		while(changed) {
+			changed = false;
+			for(final int[] edge : edges) {
+				final BitSet sub = res[edge[0]];
+				final int before = sub.cardinality();
+				sub.or(res[edge[1]]);
+				changed |= sub.cardinality() != before;
+			}
+		}
+		return res;
+	}
+
 	/**
 	 * returns true if the child can be safely cast to the parent 
 	 * @param parent the "Parent" brands
@@ -54,22 +101,56 @@ public class Inheritance {
 	 * @return
 	 */
 	public boolean isAssignableFrom(Collection<String> parent, Collection<String> child) {
-		PARENT: for (final String oneparent : parent) {
-			for(String onechild : child) {
-				if(onechild.equals(oneparent)) {
-					continue PARENT;
-				}
-				Set<String> childsParents = inheritance.get(onechild);
-				if(childsParents != null && childsParents.contains(oneparent)) {
+		return isAssignableFrom(Brands.intern(parent), Brands.intern(child));
+	}
+
+	public boolean isAssignableFrom(Brands parent, Brands child) {
+		ConcurrentHashMap<Brands, Boolean> results = casts.get(parent);
+		if(results == null) {
+			results = new ConcurrentHashMap<Brands, Boolean>();
+			final ConcurrentHashMap<Brands, Boolean> previous = casts.putIfAbsent(parent, results);
+			if(previous != null) {
+				results = previous;
+			}
+		}
+		Boolean result = results.get(child);
+		if(result == null) {
+			result = compute(parent, child);
+			if(results.size() < CACHE_SIZE) {
+				results.put(child, result);
+			}
+		}
+		return result;
+	}
+
+	/*
+	 * Every parent brand must be an ancestor of one of the child brands.
+	 * A brand without an id is in no hierarchy, so it is only its own ancestor.
+	 */
+	private boolean compute(Brands parent, Brands child) {
+		final List<String> parentNames = parent.getNames();
+		final List<String> childNames = child.getNames();
+		PARENT: for (int p = 0; p < parentNames.size(); p ++) {
+			final int oneparent = parent.getId(p);
+			for(int c = 0; c < childNames.size(); c ++) {
+				final int onechild = child.getId(c);
+				if(oneparent < 0 || onechild < 0) {
+					if(parentNames.get(p).equals(childNames.get(c))) {
+						continue PARENT;
+					}
+				} else if(onechild == oneparent
+						|| (onechild < ancestors.length && ancestors[onechild].get(oneparent))) {
 					continue PARENT;
 				}
 			}
 			// if no child claims this parent as an ancestor, then we return false
 			return false;
 		}
-	return true;
+		return true;
 	}
 
-	// maps children to parents
-	private Map<String, Set<String>> inheritance;
+	// maps children to ancestors, by brand id
+	private final BitSet[] ancestors;
+	// maps target brands to child brands to the result of the cast
+	private final ConcurrentHashMap<Brands, ConcurrentHashMap<Brands, Boolean>> casts = new ConcurrentHashMap<Brands, ConcurrentHashMap<Brands, Boolean>>();
 }
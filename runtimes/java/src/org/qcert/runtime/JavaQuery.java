@@ -17,11 +17,21 @@ package org.qcert.runtime;
 import com.google.gson.*;
 
 public interface JavaQuery {
+	/**
+	 * 
+	 * @param inheritance a Map from classes to the set of their ancestors
+	 * @param world the world, as runtime data
+	 * @return the result of running this query, as runtime data
+	 */
+	QcertData query(Inheritance inheritance, QcertData world);
+
 	/**
 	 * 
 	 * @param inheritance a Map from classes to the set of their ancestors
 	 * @param world a ({@link com.google.gson})json encoding of the world.
 	 * @return a ({@link com.google.gson})json encoding of the result of running this query
 	 */
-	JsonElement query(Inheritance inheritance, JsonElement world);
+	default JsonElement query(Inheritance inheritance, JsonElement world) {
+		return JsonConverter.toJson(query(inheritance, JsonConverter.fromJson(world)));
+	}
 }
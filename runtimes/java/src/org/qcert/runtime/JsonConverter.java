@@ -0,0 +1,164 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.runtime;
+
+import java.util.Map.Entry;
+
+import com.google.gson.*;
+
+/**
+ * Converts between the JSON I/O format and the runtime data model.
+ * This is only used at the boundary of a query (see {@link JavaQuery}).
+ */
+public class JsonConverter {
+	/**
+	 * The strings of the result are dictionary encoded (see {@link StringData}),
+	 * with a dictionary that is only shared by this result.
+	 */
+	public static QcertData fromJson(JsonElement e) {
+		return fromJson(e, new StringData.Dictionary());
+	}
+
+	private static QcertData fromJson(JsonElement e, StringData.Dictionary strings) {
+		if(e == null || e.isJsonNull()) {
+			return QcertData.UNIT;
+		} else if(e.isJsonPrimitive()) {
+			return fromJson(e.getAsJsonPrimitive(), strings);
+		} else if(e.isJsonArray()) {
+			return fromJson(e.getAsJsonArray(), strings);
+		} else if(e.isJsonObject()) {
+			return fromJson(e.getAsJsonObject(), strings);
+		} else {
+			throw new RuntimeException("Unknown json type: " + e + " of type " + e.getClass());
+		}
+	}
+
+	private static QcertData fromJson(JsonPrimitive prim, StringData.Dictionary strings) {
+		if(prim.isBoolean()) {
+			return BoolData.of(prim.getAsBoolean());
+		} else if(prim.isString()) {
+			return strings.encode(prim.getAsString());
+		} else if(prim.isNumber()) {
+			final Number num = prim.getAsNumber();
+			// Numbers coming from the parser are lazily parsed, and are floats
+			// unless boxed as {"$nat": n}
+			if(num instanceof Long || num instanceof Integer || num instanceof Short || num instanceof Byte) {
+				return NatData.of(num.longValue());
+			} else {
+				return FloatData.of(num.doubleValue());
+			}
+		} else {
+			throw new RuntimeException("Unknown primitive json type: " + prim);
+		}
+	}
+
+	private static BagData fromJson(JsonArray arr, StringData.Dictionary strings) {
+		final int size = arr.size();
+		if(size == 0) {
+			return BagData.EMPTY;
+		}
+		final QcertData[] elems = new QcertData[size];
+		for(int i = 0; i < size; i ++) {
+			elems[i] = fromJson(arr.get(i), strings);
+		}
+		return BagData.of(elems);
+	}
+
+	private static QcertData fromJson(JsonObject obj, StringData.Dictionary strings) {
+		if(obj.size() == 1) {
+			if(obj.has("$nat")) {
+				return NatData.of(obj.get("$nat").getAsLong());
+			} else if(obj.has("$left")) {
+				return new LeftData(fromJson(obj.get("$left"), strings));
+			} else if(obj.has("$right")) {
+				return UnaryOperators.right(fromJson(obj.get("$right"), strings));
+			} else if(obj.has("$foreign")) {
+				return fromForeignJson(obj.get("$foreign").getAsJsonObject());
+			}
+		} else if(obj.size() == 2 && obj.has("$class") && obj.has("$data")) {
+			final RuntimeUtils.CollectionBuilder<String> brands = new RuntimeUtils.CollectionBuilder<String>();
+			for(final JsonElement br : obj.get("$class").getAsJsonArray()) {
+				brands.add(br.getAsString());
+			}
+			return new BrandData(brands.result(), fromJson(obj.get("$data"), strings));
+		}
+		final RuntimeUtils.RecBuilder fields = new RuntimeUtils.RecBuilder(obj.size());
+		for(final Entry<String, JsonElement> entry : obj.entrySet()) {
+			fields.add(entry.getKey(), fromJson(entry.getValue(), strings));
+		}
+		return fields.toRec();
+	}
+
+	private static ForeignData fromForeignJson(JsonObject obj) {
+		if(obj.has("$date")) {
+			return DateData.fromJson(obj.get("$date").getAsJsonObject());
+		} else if(obj.has("$period")) {
+			return PeriodData.fromJson(obj.get("$period").getAsJsonObject());
+		} else {
+			throw new RuntimeException("Unknown foreign data: " + obj);
+		}
+	}
+
+	public static JsonElement toJson(QcertData d) {
+		switch(d.getKind()) {
+		case dunit:
+			return JsonNull.INSTANCE;
+		case dbool:
+			return new JsonPrimitive(d.getAsBoolean());
+		case dnat:
+			final JsonObject nat = new JsonObject();
+			nat.add("$nat", new JsonPrimitive(d.getAsLong()));
+			return nat;
+		case dfloat:
+			return new JsonPrimitive(d.getAsDouble());
+		case dstring:
+			return new JsonPrimitive(d.getAsString());
+		case dcoll:
+			final JsonArray arr = new JsonArray();
+			for(final QcertData elem : d.getAsBag()) {
+				arr.add(toJson(elem));
+			}
+			return arr;
+		case drec:
+			final RecData rd = d.getAsRec();
+			final JsonObject rec = new JsonObject();
+			for(int i = 0; i < rd.size(); i ++) {
+				rec.add(rd.getName(i), toJson(rd.getValue(i)));
+			}
+			return rec;
+		case dleft:
+			final JsonObject left = new JsonObject();
+			left.add("$left", toJson(((LeftData) d).getValue()));
+			return left;
+		case dright:
+			final JsonObject right = new JsonObject();
+			right.add("$right", toJson(((RightData) d).getValue()));
+			return right;
+		case dbrand:
+			final BrandData bd = (BrandData) d;
+			final JsonObject brand = new JsonObject();
+			final JsonArray brands = new JsonArray();
+			for(final String br : bd.getBrands()) {
+				brands.add(new JsonPrimitive(br));
+			}
+			brand.add("$class", brands);
+			brand.add("$data", toJson(bd.getData()));
+			return brand;
+		case dforeign:
+			return ((ForeignData) d).toJson();
+		default:
+			throw new RuntimeException("Unknown data kind: " + d.getKind());
+		}
+	}
+}
@@ -0,0 +1,261 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.runtime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * A bag computed on demand from another bag, through a map, filter or
+ * flatMap stage.  Stages pull their elements from the previous one, so a
+ * chain of stages runs in a single pass.
+ * The elements are kept as the stage produces them, so the stage runs once
+ * per element however many times the bag is used: the first full traversal
+ * materializes the bag, and a traversal that stops early leaves the rest
+ * to be produced on demand by the next ones.
+ */
+final class LazyBagData extends BagData {
+	// Produced elements are kept in chunks of up to this size, which are linked
+	// rather than copied into a single array
+	private static final int CHUNK_SIZE = 1024;
+
+	// Both are dropped once the bag is materialized
+	private BagData source;
+	private Function<Iterator<QcertData>, Iterator<QcertData>> stage;
+	private volatile BagData materialized = null;
+	// The iterator producing the next elements, and the elements produced so far
+	private Iterator<QcertData> pending = null;
+	private ArrayList<BagData> chunks = null;
+	private QcertData[] chunk = null;
+	private int filled = 0;
+	private boolean allNat = true;
+	private boolean allFloat = true;
+
+	LazyBagData(BagData source, Function<Iterator<QcertData>, Iterator<QcertData>> stage) {
+		this.source = source;
+		this.stage = stage;
+	}
+
+	/*
+	 * Produces elements up to index i, and tells whether there is one
+	 */
+	private synchronized boolean available(int i) {
+		if(materialized != null) {
+			return i < materialized.size();
+		}
+		if(pending == null) {
+			pending = stage.apply(source.iterator());
+			chunks = new ArrayList<BagData>();
+			chunk = new QcertData[8];
+		}
+		while(chunks.size() * CHUNK_SIZE + filled <= i) {
+			if(! pending.hasNext()) {
+				if(filled > 0) {
+					seal();
+				}
+				materialized = ConcatBagData.concat(chunks);
+				pending = null;
+				chunks = null;
+				chunk = null;
+				source = null;
+				stage = null;
+				return false;
+			}
+			add(pending.next());
+		}
+		return true;
+	}
+
+	private void add(QcertData elem) {
+		if(filled == chunk.length) {
+			if(chunk.length < CHUNK_SIZE) {
+				chunk = Arrays.copyOf(chunk, 2 * chunk.length);
+			} else {
+				seal();
+			}
+		}
+		chunk[filled ++] = elem;
+		allNat &= elem instanceof NatData;
+		allFloat &= elem instanceof FloatData;
+	}
+
+	private void seal() {
+		final boolean primitive = allNat || allFloat;
+		chunks.add(BagData.of(filled == chunk.length ? chunk : Arrays.copyOf(chunk, filled), allNat, allFloat));
+		// the values of nats and floats are copied, so their chunk can be reused
+		chunk = primitive ? chunk : new QcertData[CHUNK_SIZE];
+		filled = 0;
+		allNat = true;
+		allFloat = true;
+	}
+
+	private synchronized QcertData element(int i) {
+		if(materialized != null) {
+			return materialized.get(i);
+		}
+		final int c = i / CHUNK_SIZE;
+		return c < chunks.size() ? chunks.get(c).get(i % CHUNK_SIZE) : chunk[i % CHUNK_SIZE];
+	}
+
+	private BagData materialize() {
+		final BagData m = materialized;
+		if(m != null) {
+			return m;
+		}
+		int i = 0;
+		while(available(i)) {
+			i ++;
+		}
+		return materialized;
+	}
+
+	@Override
+	public Iterator<QcertData> iterator() {
+		final BagData m = materialized;
+		if(m != null) {
+			return m.iterator();
+		}
+		return new Iterator<QcertData>() {
+			private int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				return available(next);
+			}
+
+			@Override
+			public QcertData next() {
+				if(! hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return element(next ++);
+			}
+		};
+	}
+
+	@Override
+	public int size() {
+		return materialize().size();
+	}
+
+	@Override
+	public QcertData get(int i) {
+		return materialize().get(i);
+	}
+
+	@Override
+	public QcertData[] toArray() {
+		return materialize().toArray();
+	}
+
+	@Override
+	long sumLong() {
+		return materialize().sumLong();
+	}
+
+	@Override
+	long minLong() {
+		return materialize().minLong();
+	}
+
+	@Override
+	long maxLong() {
+		return materialize().maxLong();
+	}
+
+	@Override
+	double sumDouble(double acc) {
+		return materialize().sumDouble(acc);
+	}
+
+	@Override
+	double minDouble() {
+		return materialize().minDouble();
+	}
+
+	@Override
+	double maxDouble() {
+		return materialize().maxDouble();
+	}
+
+	/* Stages */
+
+	static Function<Iterator<QcertData>, Iterator<QcertData>> mapStage(final Function<QcertData, QcertData> f) {
+		return src -> new Iterator<QcertData>() {
+			@Override
+			public boolean hasNext() {
+				return src.hasNext();
+			}
+
+			@Override
+			public QcertData next() {
+				return f.apply(src.next());
+			}
+		};
+	}
+
+	static Function<Iterator<QcertData>, Iterator<QcertData>> filterStage(final Predicate<QcertData> p) {
+		return src -> new Iterator<QcertData>() {
+			private QcertData next = null;
+
+			@Override
+			public boolean hasNext() {
+				while(next == null && src.hasNext()) {
+					final QcertData elem = src.next();
+					if(p.test(elem)) {
+						next = elem;
+					}
+				}
+				return next != null;
+			}
+
+			@Override
+			public QcertData next() {
+				if(! hasNext()) {
+					throw new NoSuchElementException();
+				}
+				final QcertData elem = next;
+				next = null;
+				return elem;
+			}
+		};
+	}
+
+	static Function<Iterator<QcertData>, Iterator<QcertData>> flatMapStage(final Function<QcertData, BagData> f) {
+		return src -> new Iterator<QcertData>() {
+			private Iterator<QcertData> current = Collections.emptyIterator();
+
+			@Override
+			public boolean hasNext() {
+				while(! current.hasNext() && src.hasNext()) {
+					current = f.apply(src.next()).iterator();
+				}
+				return current.hasNext();
+			}
+
+			@Override
+			public QcertData next() {
+				if(! hasNext()) {
+					throw new NoSuchElementException();
+				}
+				return current.next();
+			}
+		};
+	}
+}
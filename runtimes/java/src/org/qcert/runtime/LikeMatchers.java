@@ -0,0 +1,144 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.runtime;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Compiled LIKE patterns.
+ * Generated code builds a new array of clauses for each evaluation, so
+ * compiled patterns are cached on a key describing the clauses.  The cache
+ * is bounded.  Patterns without single character wildcards (exact, prefix%,
+ * %suffix, %infix%, and more generally literals separated by %) are matched
+ * without regular expressions.
+ */
+final class LikeMatchers {
+	private static final int MAX_PATTERNS = 1024;
+	private static final ConcurrentHashMap<String, Predicate<String>> cache = new ConcurrentHashMap<String, Predicate<String>>();
+
+	private LikeMatchers() {
+	}
+
+	static Predicate<String> get(UnaryOperators.LikeClause[] clauses) {
+		final String key = key(clauses);
+		if(key == null) {
+			return compile(clauses);
+		}
+		Predicate<String> matcher = cache.get(key);
+		if(matcher == null) {
+			matcher = compile(clauses);
+			if(cache.size() >= MAX_PATTERNS) {
+				// a long-running process may compile any number of queries
+				cache.clear();
+			}
+			cache.putIfAbsent(key, matcher);
+		}
+		return matcher;
+	}
+
+	/*
+	 * Literals are prefixed by their length, so keys cannot be ambiguous.
+	 * There is no key for clauses of unknown classes
+	 */
+	private static String key(UnaryOperators.LikeClause[] clauses) {
+		final StringBuilder key = new StringBuilder();
+		for(final UnaryOperators.LikeClause clause : clauses) {
+			if(clause instanceof UnaryOperators.LiteralLikeClause) {
+				final String literal = ((UnaryOperators.LiteralLikeClause) clause).getLiteral();
+				key.append('L').append(literal.length()).append(':').append(literal);
+			} else if(clause instanceof UnaryOperators.AnyStringLikeClause) {
+				key.append('%');
+			} else if(clause instanceof UnaryOperators.AnyCharLikeClause) {
+				key.append('_');
+			} else {
+				return null;
+			}
+		}
+		return key.toString();
+	}
+
+	static Predicate<String> compile(UnaryOperators.LikeClause[] clauses) {
+		// The literals between % wildcards; null if the pattern has other wildcards
+		List<String> segments = new ArrayList<String>();
+		StringBuilder segment = new StringBuilder();
+		for(final UnaryOperators.LikeClause clause : clauses) {
+			if(clause instanceof UnaryOperators.LiteralLikeClause) {
+				segment.append(((UnaryOperators.LiteralLikeClause) clause).getLiteral());
+			} else if(clause instanceof UnaryOperators.AnyStringLikeClause) {
+				segments.add(segment.toString());
+				segment.setLength(0);
+			} else {
+				segments = null;
+				break;
+			}
+		}
+		if(segments == null) {
+			final StringBuilder regex = new StringBuilder();
+			for(final UnaryOperators.LikeClause clause : clauses) {
+				regex.append(clause.getRegex());
+			}
+			// Wildcards match any character, including line terminators
+			final Pattern pattern = Pattern.compile(regex.toString(), Pattern.DOTALL);
+			return s -> pattern.matcher(s).matches();
+		}
+		segments.add(segment.toString());
+		final String first = segments.get(0);
+		final String last = segments.get(segments.size() - 1);
+		switch(segments.size()) {
+		case 1:
+			return s -> s.equals(first);
+		case 2:
+			if(last.isEmpty()) {
+				return s -> s.startsWith(first);
+			} else if(first.isEmpty()) {
+				return s -> s.endsWith(last);
+			}
+			break;
+		case 3:
+			final String middle = segments.get(1);
+			if(first.isEmpty() && last.isEmpty()) {
+				return s -> s.contains(middle);
+			}
+			break;
+		default:
+			break;
+		}
+		final String[] middles = segments.subList(1, segments.size() - 1).toArray(new String[segments.size() - 2]);
+		return s -> matches(first, middles, last, s);
+	}
+
+	/*
+	 * Matches literals separated by % wildcards: leftmost matches of the
+	 * middle literals leave the most room for the next ones
+	 */
+	private static boolean matches(String first, String[] middles, String last, String s) {
+		if(s.length() < first.length() + last.length() || ! s.startsWith(first) || ! s.endsWith(last)) {
+			return false;
+		}
+		final int end = s.length() - last.length();
+		int pos = first.length();
+		for(final String middle : middles) {
+			final int found = s.indexOf(middle, pos);
+			if(found < 0 || found + middle.length() > end) {
+				return false;
+			}
+			pos = found + middle.length();
+		}
+		return true;
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.runtime;
+
+/**
+ * A bag of nats, stored unboxed
+ */
+final class LongBagData extends BagData {
+	private final long[] values;
+
+	LongBagData(long[] values) {
+		this.values = values;
+	}
+
+	@Override
+	public int size() {
+		return values.length;
+	}
+
+	@Override
+	public QcertData get(int i) {
+		return NatData.of(values[i]);
+	}
+
+	@Override
+	long sumLong() {
+		long acc = 0;
+		for(int i = 0; i < values.length; i ++) {
+			acc += values[i];
+		}
+		return acc;
+	}
+
+	@Override
+	long minLong() {
+		long min = Long.MAX_VALUE;
+		for(int i = 0; i < values.length; i ++) {
+			min = Math.min(min, values[i]);
+		}
+		return min;
+	}
+
+	@Override
+	long maxLong() {
+		long max = Long.MIN_VALUE;
+		for(int i = 0; i < values.length; i ++) {
+			max = Math.max(max, values[i]);
+		}
+		return max;
+	}
+
+	@Override
+	double sumDouble(double acc) {
+		for(int i = 0; i < values.length; i ++) {
+			acc += values[i];
+		}
+		return acc;
+	}
+}
@@ -0,0 +1,554 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.runtime;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * A compact binary encoding of Q*cert data, read through a memory mapped file.
+ * Records and bags are decoded lazily: a record only decodes the fields that
+ * are accessed, and a bag only the elements that are accessed, so a query
+ * reading a few attributes of each object only reads those bytes.
+ *
+ * <p>The file starts with a header (magic number, offset of the shape table,
+ * offset of the root value), followed by the values and by the table of
+ * record shapes.  Each value is a tag byte followed by its payload; records
+ * and bags hold the offsets of their values, so any of them can be read
+ * without reading the others.  Nested values are written before the value
+ * containing them, which lets the converter stream its input.
+ *
+ * <p>A JSON input file (the format used by {@link JavaQuery} and by the
+ * runners' -input option) is converted using {@link #convert} or main.
+ */
+public final class MappedData {
+	private static final int MAGIC = 0x51434231; // "QCB1"
+	private static final long HEADER_SIZE = 20;
+
+	private static final byte UNIT = 0;
+	private static final byte TRUE = 1;
+	private static final byte FALSE = 2;
+	private static final byte NAT = 3;
+	private static final byte FLOAT = 4;
+	private static final byte STRING = 5;
+	private static final byte REC = 6;
+	private static final byte BAG = 7;
+	private static final byte NAT_BAG = 8;
+	private static final byte FLOAT_BAG = 9;
+	private static final byte LEFT = 10;
+	private static final byte RIGHT = 11;
+	private static final byte BRAND = 12;
+	private static final byte FOREIGN = 13;
+
+	// A mapping is limited to 2GB, so large files are mapped in several chunks
+	private static final int CHUNK_BITS = 30;
+	private static final long CHUNK_MASK = (1L << CHUNK_BITS) - 1;
+
+	private final ByteBuffer[] chunks;
+	private final RecordShape[] shapes;
+
+	private MappedData(ByteBuffer[] chunks) {
+		this.chunks = chunks;
+		if(getInt(0) != MAGIC) {
+			throw new IllegalArgumentException("Not a Q*cert binary data file");
+		}
+		long pos = getLong(4);
+		this.shapes = new RecordShape[getInt(pos)];
+		pos += 4;
+		for(int i = 0; i < shapes.length; i ++) {
+			final String[] names = new String[getInt(pos)];
+			pos += 4;
+			for(int j = 0; j < names.length; j ++) {
+				names[j] = getString(pos);
+				pos += 4 + getInt(pos);
+			}
+			shapes[i] = names.length == 0 ? RecordShape.EMPTY : RecordShape.layoutOf(names, names.length).shape;
+		}
+	}
+
+	/**
+	 * Maps a binary data file
+	 * @return the data stored in the file, decoded lazily
+	 */
+	public static QcertData open(String fileName) throws IOException {
+		try(final FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+			final long size = channel.size();
+			final ByteBuffer[] chunks = new ByteBuffer[(int) ((size + CHUNK_MASK) >>> CHUNK_BITS)];
+			for(int i = 0; i < chunks.length; i ++) {
+				final long start = (long) i << CHUNK_BITS;
+				chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_MASK + 1, size - start));
+			}
+			final MappedData file = new MappedData(chunks);
+			return file.decode(file.getLong(12));
+		}
+	}
+
+	/**
+	 * @return true if the file starts like a binary data file
+	 */
+	public static boolean isBinary(String fileName) throws IOException {
+		try(final RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+			return file.length() >= HEADER_SIZE && file.readInt() == MAGIC;
+		}
+	}
+
+	/* Reading */
+
+	private byte getByte(long pos) {
+		return chunks[(int) (pos >>> CHUNK_BITS)].get((int) (pos & CHUNK_MASK));
+	}
+
+	private int getInt(long pos) {
+		final ByteBuffer chunk = chunks[(int) (pos >>> CHUNK_BITS)];
+		final int index = (int) (pos & CHUNK_MASK);
+		if(index + 4 <= chunk.limit()) {
+			return chunk.getInt(index);
+		}
+		int value = 0;
+		for(int i = 0; i < 4; i ++) {
+			value = (value << 8) | (getByte(pos + i) & 0xff);
+		}
+		return value;
+	}
+
+	private long getLong(long pos) {
+		final ByteBuffer chunk = chunks[(int) (pos >>> CHUNK_BITS)];
+		final int index = (int) (pos & CHUNK_MASK);
+		if(index + 8 <= chunk.limit()) {
+			return chunk.getLong(index);
+		}
+		long value = 0;
+		for(int i = 0; i < 8; i ++) {
+			value = (value << 8) | (getByte(pos + i) & 0xff);
+		}
+		return value;
+	}
+
+	private double getDouble(long pos) {
+		return Double.longBitsToDouble(getLong(pos));
+	}
+
+	private String getString(long pos) {
+		final byte[] bytes = new byte[getInt(pos)];
+		final ByteBuffer chunk = chunks[(int) ((pos + 4) >>> CHUNK_BITS)];
+		final int index = (int) ((pos + 4) & CHUNK_MASK);
+		if(index + bytes.length <= chunk.limit()) {
+			final ByteBuffer view = chunk.duplicate();
+			view.position(index);
+			view.get(bytes);
+		} else {
+			for(int i = 0; i < bytes.length; i ++) {
+				bytes[i] = getByte(pos + 4 + i);
+			}
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private QcertData decode(long pos) {
+		final byte tag = getByte(pos);
+		switch(tag) {
+		case UNIT:
+			return QcertData.UNIT;
+		case TRUE:
+			return QcertData.TRUE;
+		case FALSE:
+			return QcertData.FALSE;
+		case NAT:
+			return NatData.of(getLong(pos + 1));
+		case FLOAT:
+			return FloatData.of(getDouble(pos + 1));
+		case STRING:
+			return new StringData(getString(pos + 1));
+		case REC:
+			return new MappedRecData(this, shapes[getInt(pos + 1)], pos + 5);
+		case BAG:
+		case NAT_BAG:
+		case FLOAT_BAG:
+			final int size = getInt(pos + 1);
+			return size == 0 ? BagData.EMPTY : new MappedBagData(this, tag, pos + 5, size);
+		case LEFT:
+			return new LeftData(decode(getLong(pos + 1)));
+		case RIGHT:
+			return UnaryOperators.right(decode(getLong(pos + 1)));
+		case BRAND:
+			long brandPos = pos + 5;
+			final RuntimeUtils.CollectionBuilder<String> brands = new RuntimeUtils.CollectionBuilder<String>();
+			for(int i = getInt(pos + 1); i > 0; i --) {
+				brands.add(getString(brandPos));
+				brandPos += 4 + getInt(brandPos);
+			}
+			return new BrandData(brands.result(), decode(getLong(brandPos)));
+		case FOREIGN:
+			return JsonConverter.fromJson(new JsonParser().parse(getString(pos + 1)));
+		default:
+			throw new IllegalStateException("Unknown tag " + tag + " at offset " + pos);
+		}
+	}
+
+	/**
+	 * A record whose values are decoded when first accessed
+	 */
+	private static final class MappedRecData extends RecData {
+		private final MappedData file;
+		private final long offsets;
+		private final QcertData[] decoded;
+
+		MappedRecData(MappedData file, RecordShape shape, long offsets) {
+			this(file, shape, offsets, new QcertData[shape.size()]);
+		}
+
+		private MappedRecData(MappedData file, RecordShape shape, long offsets, QcertData[] decoded) {
+			super(shape, decoded);
+			this.file = file;
+			this.offsets = offsets;
+			this.decoded = decoded;
+		}
+
+		@Override
+		public QcertData getValue(int index) {
+			QcertData value = decoded[index];
+			if(value == null) {
+				// Decoding is deterministic, so a race only wastes work
+				value = file.decode(file.getLong(offsets + 8L * index));
+				decoded[index] = value;
+			}
+			return value;
+		}
+	}
+
+	/**
+	 * A bag whose elements are decoded on each access, so that traversing
+	 * a large bag does not retain its elements
+	 */
+	private static final class MappedBagData extends BagData {
+		private final MappedData file;
+		private final byte tag;
+		private final long slots;
+		private final int size;
+
+		MappedBagData(MappedData file, byte tag, long slots, int size) {
+			this.file = file;
+			this.tag = tag;
+			this.slots = slots;
+			this.size = size;
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public QcertData get(int index) {
+			if(index < 0 || index >= size) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+			}
+			final long slot = slots + 8L * index;
+			switch(tag) {
+			case NAT_BAG:
+				return NatData.of(file.getLong(slot));
+			case FLOAT_BAG:
+				return FloatData.of(file.getDouble(slot));
+			default:
+				return file.decode(file.getLong(slot));
+			}
+		}
+
+		@Override
+		long sumLong() {
+			if(tag != NAT_BAG) {
+				return super.sumLong();
+			}
+			long sum = 0;
+			for(int i = 0; i < size; i ++) {
+				sum += file.getLong(slots + 8L * i);
+			}
+			return sum;
+		}
+
+		@Override
+		double sumDouble(double acc) {
+			if(tag != FLOAT_BAG) {
+				return super.sumDouble(acc);
+			}
+			for(int i = 0; i < size; i ++) {
+				acc += file.getDouble(slots + 8L * i);
+			}
+			return acc;
+		}
+	}
+
+	/* Writing */
+
+	/**
+	 * Converts a JSON input file into a binary data file.
+	 * The top-level collections are streamed, one element at a time.
+	 */
+	public static void convert(String jsonFile, String binaryFile) throws IOException {
+		final long root;
+		try(final Encoder out = new Encoder(binaryFile);
+				final JsonReader in = new JsonReader(new FileReader(jsonFile))) {
+			final JsonParser parser = new JsonParser();
+			final List<String> names = new ArrayList<String>();
+			final List<Long> fields = new ArrayList<Long>();
+			in.beginObject();
+			while(in.hasNext()) {
+				names.add(in.nextName());
+				if(in.peek() == JsonToken.BEGIN_ARRAY) {
+					long[] elems = new long[16];
+					int size = 0;
+					byte tag = BAG;
+					in.beginArray();
+					while(in.hasNext()) {
+						if(size == elems.length) {
+							elems = Arrays.copyOf(elems, size * 2);
+						}
+						final QcertData elem = JsonConverter.fromJson(parser.parse(in));
+						// Primitive bags are written inline, other elements by reference
+						final byte elemTag = elem instanceof NatData ? NAT_BAG : elem instanceof FloatData ? FLOAT_BAG : BAG;
+						if(size == 0) {
+							tag = elemTag;
+						} else if(tag != BAG && tag != elemTag) {
+							for(int i = 0; i < size; i ++) {
+								elems[i] = out.write(tag == NAT_BAG ? NatData.of(elems[i]) : FloatData.of(Double.longBitsToDouble(elems[i])));
+							}
+							tag = BAG;
+						}
+						elems[size ++] = tag == NAT_BAG ? elem.getAsLong()
+								: tag == FLOAT_BAG ? Double.doubleToRawLongBits(elem.getAsDouble())
+								: out.write(elem);
+					}
+					in.endArray();
+					fields.add(out.writeBag(tag, elems, size));
+				} else {
+					fields.add(out.write(JsonConverter.fromJson(parser.parse(in))));
+				}
+			}
+			in.endObject();
+			final RecordShape.Layout layout = RecordShape.layoutOf(names.toArray(new String[names.size()]), names.size());
+			final long[] offsets = new long[layout.sources.length];
+			for(int i = 0; i < offsets.length; i ++) {
+				offsets[i] = fields.get(layout.sources[i]);
+			}
+			root = out.writeRec(layout.shape, offsets);
+		}
+		try(final RandomAccessFile file = new RandomAccessFile(binaryFile, "rw")) {
+			file.seek(12);
+			file.writeLong(root);
+		}
+	}
+
+	private static final class Encoder implements AutoCloseable {
+		// Short strings are written once, and shared
+		private static final int SHARED_STRING_LENGTH = 64;
+
+		private final String fileName;
+		private final DataOutputStream out;
+		private long position = 0;
+		private final Map<RecordShape, Integer> shapeIds = new HashMap<RecordShape, Integer>();
+		private final List<RecordShape> shapes = new ArrayList<RecordShape>();
+		private final Map<String, Long> strings = new HashMap<String, Long>();
+		private final long[] constants = { -1, -1, -1 };
+
+		Encoder(String fileName) throws IOException {
+			this.fileName = fileName;
+			this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16));
+			writeInt(MAGIC);
+			writeLong(0); // shape table, patched on close
+			writeLong(0); // root, patched by the caller
+		}
+
+		private void writeByte(int v) throws IOException {
+			out.writeByte(v);
+			position += 1;
+		}
+
+		private void writeInt(int v) throws IOException {
+			out.writeInt(v);
+			position += 4;
+		}
+
+		private void writeLong(long v) throws IOException {
+			out.writeLong(v);
+			position += 8;
+		}
+
+		private void writeString(String s) throws IOException {
+			final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			writeInt(bytes.length);
+			out.write(bytes);
+			position += bytes.length;
+		}
+
+		/**
+		 * @return the offset of the value
+		 */
+		long write(QcertData d) throws IOException {
+			switch(d.getKind()) {
+			case dunit:
+				return writeConstant(UNIT);
+			case dbool:
+				return writeConstant(d.getAsBoolean() ? TRUE : FALSE);
+			case dnat:
+				final long nat = position;
+				writeByte(NAT);
+				writeLong(d.getAsLong());
+				return nat;
+			case dfloat:
+				final long flt = position;
+				writeByte(FLOAT);
+				writeLong(Double.doubleToRawLongBits(d.getAsDouble()));
+				return flt;
+			case dstring:
+				final String s = d.getAsString();
+				final Long shared = strings.get(s);
+				if(shared != null) {
+					return shared;
+				}
+				final long str = position;
+				writeByte(STRING);
+				writeString(s);
+				if(s.length() <= SHARED_STRING_LENGTH) {
+					strings.put(s, str);
+				}
+				return str;
+			case drec:
+				final RecData rec = d.getAsRec();
+				final long[] values = new long[rec.size()];
+				for(int i = 0; i < values.length; i ++) {
+					values[i] = write(rec.getValue(i));
+				}
+				return writeRec(rec.getShape(), values);
+			case dcoll:
+				final BagData bag = d.getAsBag();
+				final long[] elems = new long[bag.size()];
+				if(bag instanceof LongBagData) {
+					for(int i = 0; i < elems.length; i ++) {
+						elems[i] = bag.get(i).getAsLong();
+					}
+					return writeBag(NAT_BAG, elems, elems.length);
+				} else if(bag instanceof DoubleBagData) {
+					for(int i = 0; i < elems.length; i ++) {
+						elems[i] = Double.doubleToRawLongBits(bag.get(i).getAsDouble());
+					}
+					return writeBag(FLOAT_BAG, elems, elems.length);
+				}
+				int i = 0;
+				for(final QcertData elem : bag) {
+					elems[i ++] = write(elem);
+				}
+				return writeBag(BAG, elems, elems.length);
+			case dleft:
+				return writeRef(LEFT, write(((LeftData) d).getValue()));
+			case dright:
+				return writeRef(RIGHT, write(((RightData) d).getValue()));
+			case dbrand:
+				final BrandData bd = (BrandData) d;
+				final long data = write(bd.getData());
+				final long brand = position;
+				writeByte(BRAND);
+				writeInt(bd.getBrands().size());
+				for(final String br : bd.getBrands()) {
+					writeString(br);
+				}
+				writeLong(data);
+				return brand;
+			case dforeign:
+				final long foreign = position;
+				writeByte(FOREIGN);
+				writeString(((ForeignData) d).toJson().toString());
+				return foreign;
+			default:
+				throw new RuntimeException("Unknown data kind: " + d.getKind());
+			}
+		}
+
+		private long writeConstant(byte tag) throws IOException {
+			if(constants[tag] < 0) {
+				constants[tag] = position;
+				writeByte(tag);
+			}
+			return constants[tag];
+		}
+
+		private long writeRef(byte tag, long value) throws IOException {
+			final long pos = position;
+			writeByte(tag);
+			writeLong(value);
+			return pos;
+		}
+
+		long writeRec(RecordShape shape, long[] values) throws IOException {
+			Integer id = shapeIds.get(shape);
+			if(id == null) {
+				id = shapes.size();
+				shapes.add(shape);
+				shapeIds.put(shape, id);
+			}
+			final long pos = position;
+			writeByte(REC);
+			writeInt(id);
+			for(final long value : values) {
+				writeLong(value);
+			}
+			return pos;
+		}
+
+		/* Slots are either offsets, or the values of primitive bags */
+		long writeBag(byte tag, long[] slots, int size) throws IOException {
+			final long pos = position;
+			writeByte(tag);
+			writeInt(size);
+			for(int i = 0; i < size; i ++) {
+				writeLong(slots[i]);
+			}
+			return pos;
+		}
+
+		@Override
+		public void close() throws IOException {
+			final long table = position;
+			writeInt(shapes.size());
+			for(final RecordShape shape : shapes) {
+				writeInt(shape.size());
+				for(int i = 0; i < shape.size(); i ++) {
+					writeString(shape.getName(i));
+				}
+			}
+			out.close();
+			try(final RandomAccessFile file = new RandomAccessFile(fileName, "rw")) {
+				file.seek(4);
+				file.writeLong(table);
+			}
+		}
+	}
+}
@@ -0,0 +1,62 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.runtime;
+
+/**
+ * Represents the dnat data constructor.
+ * Note: this data constructor is not really 'nat' but rather integer
+ */
+public final class NatData extends QcertData {
+	private static final int CACHE_LOW = -128;
+	private static final int CACHE_HIGH = 1024;
+	private static final NatData[] cache = new NatData[CACHE_HIGH - CACHE_LOW];
+
+	static {
+		for(int i = 0; i < cache.length; i ++) {
+			cache[i] = new NatData(i + CACHE_LOW);
+		}
+	}
+
+	private final long value;
+
+	private NatData(long value) {
+		this.value = value;
+	}
+
+	/**
+	 * Small values are shared, so counts, lengths and date components
+	 * do not allocate.
+	 */
+	public static NatData of(long value) {
+		if(value >= CACHE_LOW && value < CACHE_HIGH) {
+			return cache[(int) value - CACHE_LOW];
+		}
+		return new NatData(value);
+	}
+
+	@Override
+	public Kind getKind() {
+		return Kind.dnat;
+	}
+
+	@Override
+	public long getAsLong() {
+		return value;
+	}
+
+	@Override
+	public double getAsDouble() {
+		return value;
+	}
+}
@@ -0,0 +1,207 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.runtime;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Sorting of bags of records on some of their fields.
+ * The sort key of each record is extracted once, into primitive fields,
+ * so comparisons neither look up fields nor go through the DataComparator.
+ * As in the semantics (see SortBy.v) keys are nats or strings, nats coming
+ * first; floats are accepted too, and compared with nats by value.
+ */
+final class OrderBy {
+	/* Below this size, a sequential sort is faster */
+	private static final int PARALLEL_SORT_SIZE = 1 << 14;
+
+	private static final byte NUMBER = 0;
+	private static final byte STRING = 1;
+
+	private OrderBy() {
+	}
+
+	/*
+	 * A record with its sort key.  The first component of the key is
+	 * inlined, since most sorts have a single criterion
+	 */
+	static final class Entry {
+		final QcertData elem;
+		// The position in the bag, which breaks ties in the bounded heap
+		final int pos;
+		final boolean nat0;
+		final long num0;
+		final String str0;
+		// The other components of the key, or null
+		final boolean[] nats;
+		final long[] nums;
+		final String[] strs;
+
+		Entry(String[] fields, QcertData elem, int pos) {
+			final RecData rec = elem.getAsRec();
+			this.elem = elem;
+			this.pos = pos;
+			final QcertData k0 = key(rec, fields[0]);
+			this.nat0 = k0 instanceof NatData;
+			this.num0 = number(k0);
+			this.str0 = string(k0);
+			if(fields.length > 1) {
+				this.nats = new boolean[fields.length];
+				this.nums = new long[fields.length];
+				this.strs = new String[fields.length];
+				for(int i = 1; i < fields.length; i ++) {
+					final QcertData k = key(rec, fields[i]);
+					nats[i] = k instanceof NatData;
+					nums[i] = number(k);
+					strs[i] = string(k);
+				}
+			} else {
+				this.nats = null;
+				this.nums = null;
+				this.strs = null;
+			}
+		}
+
+		private static QcertData key(RecData rec, String field) {
+			final QcertData k = rec.get(field);
+			if(k == null) {
+				throw new IllegalArgumentException("Cannot sort on missing field " + field + " of " + rec);
+			}
+			final QcertData.Kind kind = k.getKind();
+			if(kind != QcertData.Kind.dnat && kind != QcertData.Kind.dfloat && kind != QcertData.Kind.dstring) {
+				throw new IllegalArgumentException("Cannot sort on field " + field + " of " + rec);
+			}
+			return k;
+		}
+
+		/* nats are stored as is, floats as their bits */
+		private static long number(QcertData k) {
+			switch(k.getKind()) {
+			case dnat:
+				return k.getAsLong();
+			case dfloat:
+				return Double.doubleToRawLongBits(k.getAsDouble());
+			default:
+				return 0;
+			}
+		}
+
+		private static String string(QcertData k) {
+			return k.getKind() == QcertData.Kind.dstring ? k.getAsString() : null;
+		}
+	}
+
+	private static int compare(boolean nat1, long num1, String str1, boolean nat2, long num2, String str2) {
+		if(str1 != null || str2 != null) {
+			if(str1 == null) {
+				return -1;
+			} else if(str2 == null) {
+				return 1;
+			} else {
+				return str1.compareTo(str2);
+			}
+		} else if(nat1 && nat2) {
+			return Long.compare(num1, num2);
+		} else {
+			return Double.compare(nat1 ? (double) num1 : Double.longBitsToDouble(num1),
+					nat2 ? (double) num2 : Double.longBitsToDouble(num2));
+		}
+	}
+
+	static final Comparator<Entry> entryComparator = (e1, e2) -> {
+		final int c = compare(e1.nat0, e1.num0, e1.str0, e2.nat0, e2.num0, e2.str0);
+		if(c != 0 || e1.nats == null) {
+			return c;
+		}
+		for(int i = 1; i < e1.nats.length; i ++) {
+			final int ci = compare(e1.nats[i], e1.nums[i], e1.strs[i], e2.nats[i], e2.nums[i], e2.strs[i]);
+			if(ci != 0) {
+				return ci;
+			}
+		}
+		return 0;
+	};
+
+	static String[] fields(Collection<String> fields) {
+		return fields.toArray(new String[fields.size()]);
+	}
+
+	/**
+	 * Stable sort of the records of the bag
+	 */
+	static BagData sort(Collection<String> fields, BagData coll) {
+		if(fields.isEmpty()) {
+			return coll;
+		}
+		// keys are checked before any shortcut, so errors do not depend on the size
+		final String[] fs = fields(fields);
+		final Entry[] entries = new Entry[coll.size()];
+		int i = 0;
+		for(final QcertData elem : coll) {
+			entries[i] = new Entry(fs, elem, i);
+			i ++;
+		}
+		if(entries.length < 2) {
+			return coll;
+		} else if(entries.length >= PARALLEL_SORT_SIZE) {
+			Arrays.parallelSort(entries, entryComparator);
+		} else {
+			Arrays.sort(entries, entryComparator);
+		}
+		return elems(entries);
+	}
+
+	private static BagData elems(Entry[] entries) {
+		final QcertData[] dst = new QcertData[entries.length];
+		for(int i = 0; i < dst.length; i ++) {
+			dst[i] = entries[i].elem;
+		}
+		return BagData.of(dst);
+	}
+
+	/* Orders entries with the same key by position, which makes the heap stable */
+	private static final Comparator<Entry> stableComparator = entryComparator.thenComparingInt(e -> e.pos);
+
+	/**
+	 * The first k records of the sorted bag, in order: same as a prefix of
+	 * sort, but in O(n log k) time and O(k) space, using a bounded max-heap
+	 * of the k smallest records seen so far
+	 */
+	static BagData topk(Collection<String> fields, BagData coll, long k) {
+		if(k >= coll.size()) {
+			return sort(fields, coll);
+		} else if(fields.isEmpty()) {
+			return k <= 0 ? BagData.EMPTY : BagData.of(Arrays.copyOf(coll.toArray(), (int) k));
+		}
+		// as in sort, the keys of all the records are checked, even if none is kept
+		final String[] fs = fields(fields);
+		final PriorityQueue<Entry> heap = new PriorityQueue<Entry>((int) Math.max(k, 1), stableComparator.reversed());
+		int i = 0;
+		for(final QcertData elem : coll) {
+			final Entry entry = new Entry(fs, elem, i ++);
+			if(heap.size() < k) {
+				heap.add(entry);
+			} else if(! heap.isEmpty() && stableComparator.compare(entry, heap.peek()) < 0) {
+				heap.poll();
+				heap.add(entry);
+			}
+		}
+		final Entry[] entries = heap.toArray(new Entry[heap.size()]);
+		Arrays.sort(entries, stableComparator);
+		return elems(entries);
+	}
+}
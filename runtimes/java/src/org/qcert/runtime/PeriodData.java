@@ -0,0 +1,93 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.runtime;
+
+import com.google.gson.*;
+
+/**
+ * Foreign data for SQL date periods, encoded in JSON as
+ * {"$foreign": {"$period": {"unit": u, "period": n}}}
+ * A period is an amount of a single unit.
+ */
+public final class PeriodData extends ForeignData {
+	public enum Unit {
+		DAY, MONTH, YEAR;
+	}
+
+	private final Unit unit;
+	private final long amount;
+
+	public PeriodData(Unit unit, long amount) {
+		this.unit = unit;
+		this.amount = amount;
+	}
+
+	public Unit getUnit() {
+		return unit;
+	}
+
+	public long getAmount() {
+		return amount;
+	}
+
+	private long totalMonths() {
+		switch(unit) {
+		case YEAR:
+			return 12 * amount;
+		case MONTH:
+			return amount;
+		default:
+			return 0;
+		}
+	}
+
+	private long days() {
+		return unit == Unit.DAY ? amount : 0;
+	}
+
+	/* Periods are ordered by their months, then by their days */
+	@Override
+	public int compareTo(ForeignData other) {
+		final PeriodData p2 = (PeriodData) other;
+		final int c = Long.compare(totalMonths(), p2.totalMonths());
+		return c != 0 ? c : Long.compare(days(), p2.days());
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Long.hashCode(totalMonths()) + Long.hashCode(days());
+	}
+
+	@Override
+	public JsonElement toJson() {
+		final JsonObject result = new JsonObject();
+		final JsonObject resultIn = new JsonObject();
+		final JsonObject resultIn2 = new JsonObject();
+		resultIn2.add("unit", new JsonPrimitive(unit.name()));
+		resultIn2.add("period", new JsonPrimitive(amount));
+		resultIn.add("$period", resultIn2);
+		result.add("$foreign", resultIn);
+		return result;
+	}
+
+	static PeriodData fromJson(JsonObject p) {
+		final String unit = p.get("unit").getAsString();
+		final long period = p.get("period").getAsLong();
+		try {
+			return new PeriodData(Unit.valueOf(unit), period);
+		} catch(IllegalArgumentException e) {
+			throw new RuntimeException("Unknown period unit: " + unit);
+		}
+	}
+}
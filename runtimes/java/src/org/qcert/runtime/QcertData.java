@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.qcert.runtime;
+
+/**
+ * Represents Q*cert data at runtime.
+ * All values are immutable.  Conversion from and to the JSON I/O format is
+ * done by {@link JsonConverter}, only at the {@link JavaQuery} boundary.
+ */
+public abstract class QcertData {
+	/* The order of the kinds is the order used by the DataComparator */
+	public enum Kind {
+		dunit, dbool, dnat, dfloat, dstring, drec, dcoll, dleft, dright, dbrand, dforeign;
+	}
+
+	/** Single instance of dunit */
+	public static final UnitData UNIT = new UnitData();
+	/** Single instance of the true dbool */
+	public static final BoolData TRUE = new BoolData(true);
+	/** Single instance of the false dbool */
+	public static final BoolData FALSE = new BoolData(false);
+
+	public abstract Kind getKind();
+
+	public boolean getAsBoolean() {
+		throw new UnsupportedOperationException("Expected a boolean, but got " + this);
+	}
+
+	public long getAsLong() {
+		throw new UnsupportedOperationException("Expected a number, but got " + this);
+	}
+
+	public double getAsDouble() {
+		throw new UnsupportedOperationException("Expected a number, but got " + this);
+	}
+
+	public String getAsString() {
+		throw new UnsupportedOperationException("Expected a string, but got " + this);
+	}
+
+	public BagData getAsBag() {
+		throw new UnsupportedOperationException("Expected a bag, but got " + this);
+	}
+
+	public RecData getAsRec() {
+		throw new UnsupportedOperationException("Expected a record, but got " + this);
+	}
+
+	/**
+	 * Data are equal when {@link DataComparator} says so
+	 */
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof QcertData && DataComparator.getComparator().equal(this, (QcertData) other);
+	}
+
+	/**
+	 * @see DataHasher
+	 */
+	@Override
+	public int hashCode() {
+		return DataHasher.hash(this);
+	}
+
+	@Override
+	public String toString() {
+		return JsonConverter.toJson(this).toString();
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.runtime;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * Represents the drec data constructor.
+ * A record is a {@link RecordShape} together with an array of values, one per
+ * field of the shape, so field access is an array index.
+ * Records are immutable; they are built using {@link RuntimeUtils.RecBuilder}.
+ */
+public class RecData extends QcertData {
+	/** Single instance of the empty record */
+	public static final RecData EMPTY = new RecData(RecordShape.EMPTY, new QcertData[0]);
+
+	private final RecordShape shape;
+	private final QcertData[] values;
+
+	/* The array is owned by the record, and must not be modified afterwards */
+	RecData(RecordShape shape, QcertData[] values) {
+		this.shape = shape;
+		this.values = values;
+	}
+
+	/*
+	 * Builds a record from the values of one or two source records
+	 */
+	RecData(RecordShape.Layout layout, RecData src1, RecData src2) {
+		final int[] sources = layout.sources;
+		final QcertData[] dst = new QcertData[sources.length];
+		for(int i = 0; i < sources.length; i ++) {
+			final int s = sources[i];
+			dst[i] = s >= 0 ? src1.getValue(s) : src2.getValue(-(s + 1));
+		}
+		this.shape = layout.shape;
+		this.values = dst;
+	}
+
+	@Override
+	public Kind getKind() {
+		return Kind.drec;
+	}
+
+	@Override
+	public RecData getAsRec() {
+		return this;
+	}
+
+	/* See DataHasher.fingerprint; zero until computed */
+	private volatile long fingerprint = 0;
+
+	long fingerprint() {
+		long fp = fingerprint;
+		if(fp == 0) {
+			fp = DataHasher.computeFingerprint(this);
+			fingerprint = fp;
+		}
+		return fp;
+	}
+
+	public RecordShape getShape() {
+		return shape;
+	}
+
+	public int size() {
+		return shape.size();
+	}
+
+	public String getName(int index) {
+		return shape.getName(index);
+	}
+
+	public QcertData getValue(int index) {
+		return values[index];
+	}
+
+	public boolean has(String name) {
+		return shape.indexOf(name) >= 0;
+	}
+
+	public QcertData get(String name) {
+		final int index = shape.indexOf(name);
+		return index >= 0 ? getValue(index) : null;
+	}
+
+	public List<String> getNames() {
+		return shape.getNames();
+	}
+
+	public Set<Entry<String, QcertData>> entrySet() {
+		final Set<Entry<String, QcertData>> entries = new LinkedHashSet<Entry<String, QcertData>>(size());
+		for(int i = 0; i < size(); i ++) {
+			entries.add(new AbstractMap.SimpleImmutableEntry<String, QcertData>(getName(i), getValue(i)));
+		}
+		return Collections.unmodifiableSet(entries);
+	}
+}
@@ -0,0 +1,274 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.qcert.runtime;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The layout of a record: its field names, sorted.
+ * Shapes are interned, so records with the same fields usually share
+ * their shape, and comparing shapes is an identity check.  Field names come
+ * from the data, so the tables are bounded, and cleared when they are full:
+ * shapes are then equal if they have the same names, whether or not they
+ * are the same instance.  The layouts produced by record operations
+ * (remove, project, concat) are computed once per shape and cached.
+ */
+public final class RecordShape {
+	private static final int MAX_SHAPES = 1 << 12;
+	private static final ConcurrentHashMap<List<String>, RecordShape> shapes = new ConcurrentHashMap<List<String>, RecordShape>();
+	// From field names in insertion order to a sorted layout
+	private static final ConcurrentHashMap<List<String>, Layout> layouts = new ConcurrentHashMap<List<String>, Layout>();
+
+	/** The shape of the empty record */
+	public static final RecordShape EMPTY = intern(new String[0]);
+
+	private final String[] names;
+	private final int hash;
+	private final ConcurrentHashMap<Object, Layout> transitions = new ConcurrentHashMap<Object, Layout>();
+
+	private RecordShape(String[] names) {
+		this.names = names;
+		this.hash = Arrays.hashCode(names);
+	}
+
+	/**
+	 * A shape together with where each of its values comes from.
+	 * Non-negative sources index the (first) source record,
+	 * negative sources s index the second source record at -(s+1).
+	 * For a concatenation, shared lists the fields that are in both
+	 * source records, as pairs of indexes (first, second).
+	 */
+	static final class Layout {
+		private static final int[] NONE = new int[0];
+
+		final RecordShape shape;
+		final int[] sources;
+		final int[] shared;
+
+		Layout(RecordShape shape, int[] sources) {
+			this(shape, sources, NONE);
+		}
+
+		Layout(RecordShape shape, int[] sources, int[] shared) {
+			this.shape = shape;
+			this.sources = sources;
+			this.shared = shared;
+		}
+	}
+
+	private static RecordShape intern(String[] sortedNames) {
+		final List<String> key = Arrays.asList(sortedNames);
+		RecordShape shape = shapes.get(key);
+		if(shape == null) {
+			final String[] names = new String[sortedNames.length];
+			for(int i = 0; i < names.length; i ++) {
+				// interned so that lookups with string literals are identity checks
+				names[i] = sortedNames[i].intern();
+			}
+			final RecordShape fresh = new RecordShape(names);
+			if(shapes.size() >= MAX_SHAPES) {
+				shapes.clear();
+			}
+			shape = shapes.putIfAbsent(Arrays.asList(names), fresh);
+			if(shape == null) {
+				shape = fresh;
+			}
+		}
+		return shape;
+	}
+
+	/**
+	 * The shape of a record with a single field
+	 */
+	public static RecordShape of(String name) {
+		return intern(new String[] { name });
+	}
+
+	/**
+	 * Computes the layout of a record whose fields are given in an arbitrary order.
+	 * If a name is repeated, the last source for it is used.
+	 */
+	static Layout layoutOf(String[] names, int count) {
+		final List<String> key = Arrays.asList(names).subList(0, count);
+		Layout layout = layouts.get(key);
+		if(layout == null) {
+			final String[] sorted = new ArrayList<String>(key).toArray(new String[count]);
+			Arrays.sort(sorted);
+			int unique = 0;
+			for(int i = 0; i < count; i ++) {
+				if(unique == 0 || ! sorted[unique - 1].equals(sorted[i])) {
+					sorted[unique ++] = sorted[i];
+				}
+			}
+			final RecordShape shape = intern(Arrays.copyOf(sorted, unique));
+			final int[] sources = new int[unique];
+			for(int i = 0; i < count; i ++) {
+				sources[shape.indexOf(names[i])] = i;
+			}
+			layout = new Layout(shape, sources);
+			if(layouts.size() >= MAX_SHAPES) {
+				layouts.clear();
+			}
+			layouts.putIfAbsent(new ArrayList<String>(key), layout);
+		}
+		return layout;
+	}
+
+	public int size() {
+		return names.length;
+	}
+
+	public String getName(int index) {
+		return names[index];
+	}
+
+	public List<String> getNames() {
+		return Collections.unmodifiableList(Arrays.asList(names));
+	}
+
+	/**
+	 * @return the index of the field, or a negative number if this shape does not have it
+	 */
+	public int indexOf(String name) {
+		for(int i = 0; i < names.length; i ++) {
+			if(names[i] == name) {
+				return i;
+			}
+		}
+		return Arrays.binarySearch(names, name);
+	}
+
+	/**
+	 * Compares the field names of two shapes, in order
+	 */
+	int compareNames(RecordShape other) {
+		if(this == other) {
+			return 0;
+		}
+		final int common = Math.min(names.length, other.names.length);
+		for(int i = 0; i < common; i ++) {
+			final int c = names[i].compareTo(other.names[i]);
+			if(c != 0) {
+				return c;
+			}
+		}
+		return Integer.compare(names.length, other.names.length);
+	}
+
+	Layout remove(String name) {
+		Layout layout = transitions.get(name);
+		if(layout == null) {
+			final int removed = indexOf(name);
+			final int[] sources = new int[removed < 0 ? names.length : names.length - 1];
+			final String[] dst = new String[sources.length];
+			int j = 0;
+			for(int i = 0; i < names.length; i ++) {
+				if(i != removed) {
+					dst[j] = names[i];
+					sources[j] = i;
+					j ++;
+				}
+			}
+			layout = cache(name, new Layout(intern(dst), sources));
+		}
+		return layout;
+	}
+
+	Layout project(Collection<String> fs) {
+		// Collections of names never collide with the keys of the other transitions
+		Layout layout = transitions.get(fs);
+		if(layout == null) {
+			final int[] kept = new int[names.length];
+			int count = 0;
+			for(int i = 0; i < names.length; i ++) {
+				if(fs.contains(names[i])) {
+					kept[count ++] = i;
+				}
+			}
+			final int[] sources = Arrays.copyOf(kept, count);
+			final String[] dst = new String[count];
+			for(int i = 0; i < count; i ++) {
+				dst[i] = names[sources[i]];
+			}
+			layout = cache(new ArrayList<String>(fs), new Layout(intern(dst), sources));
+		}
+		return layout;
+	}
+
+	/**
+	 * Fields of the other shape take precedence
+	 */
+	Layout concat(RecordShape other) {
+		Layout layout = transitions.get(other);
+		if(layout == null) {
+			final String[] dst = new String[names.length + other.names.length];
+			final int[] sources = new int[dst.length];
+			final int[] shared = new int[2 * Math.min(names.length, other.names.length)];
+			int i = 0, j = 0, k = 0, s = 0;
+			while(i < names.length || j < other.names.length) {
+				final int c;
+				if(i == names.length) {
+					c = 1;
+				} else if(j == other.names.length) {
+					c = -1;
+				} else {
+					c = names[i].compareTo(other.names[j]);
+				}
+				if(c < 0) {
+					dst[k] = names[i];
+					sources[k] = i;
+					i ++;
+				} else {
+					dst[k] = other.names[j];
+					sources[k] = -(j + 1);
+					if(c == 0) {
+						shared[s ++] = i;
+						shared[s ++] = j;
+						i ++;
+					}
+					j ++;
+				}
+				k ++;
+			}
+			layout = cache(other, new Layout(intern(Arrays.copyOf(dst, k)), Arrays.copyOf(sources, k), Arrays.copyOf(shared, s)));
+		}
+		return layout;
+	}
+
+	private Layout cache(Object key, Layout layout) {
+		final Layout previous = transitions.putIfAbsent(key, layout);
+		return previous == null ? layout : previous;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return this == o || (o instanceof RecordShape && hash == ((RecordShape) o).hash && Arrays.equals(names, ((RecordShape) o).names));
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(names);
+	}
+}
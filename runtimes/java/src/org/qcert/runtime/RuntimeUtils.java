@@ -16,8 +16,6 @@ package org.qcert.runtime;
 
 import java.util.*;
 
-import com.google.gson.*;
-
 public class RuntimeUtils {
     public static class CollectionBuilder<T> {
         public CollectionBuilder(Collection<T> coll) {
@@ -44,75 +42,116 @@ public class RuntimeUtils {
         private Collection<T> base;
     }
 	
-    public static class JsonObjectBuilder {
-        public JsonObjectBuilder() {
-            this.base = new JsonObject();
+    public static class BagBuilder {
+        public BagBuilder() {
+            this.base = new ArrayList<QcertData>();
+        }
+
+        public BagBuilder(int capacity) {
+            this.base = new ArrayList<QcertData>(capacity);
         }
- 		
-        public JsonObjectBuilder add(String str, JsonElement elem) {
-            base.add(str, elem);
+
+        public BagBuilder add(QcertData elem) {
+            base.add(elem);
+            allNat &= elem instanceof NatData;
+            allFloat &= elem instanceof FloatData;
             return this;
         }
- 		
-        public JsonObject toJsonObject() {
-            return base;
+
+        public BagBuilder addAll(BagData bag) {
+            for(final QcertData elem : bag) {
+                add(elem);
+            }
+            return this;
+        }
+
+        /**
+         * Homogeneous bags of nats or floats are stored unboxed
+         */
+        public BagData result() {
+            return BagData.of(base.toArray(new QcertData[base.size()]), allNat, allFloat);
         }
- 		
-        private JsonObject base;
+
+        private ArrayList<QcertData> base;
+        private boolean allNat = true;
+        private boolean allFloat = true;
     }
-	
-    public static JsonArray createJsonArray(JsonElement... elems) {
-        JsonArray arr = new JsonArray();
-        for(JsonElement elem : elems) {
-            arr.add(elem);
+
+    public static class RecBuilder {
+        public RecBuilder() {
+            this(4);
+        }
+
+        public RecBuilder(int capacity) {
+            this.names = new String[capacity];
+            this.values = new QcertData[capacity];
+        }
+
+        public RecBuilder add(String str, QcertData elem) {
+            if(count == names.length) {
+                names = Arrays.copyOf(names, 2 * count + 1);
+                values = Arrays.copyOf(values, 2 * count + 1);
+            }
+            names[count] = str;
+            values[count] = elem;
+            count++;
+            return this;
         }
-        return arr;
+
+        /**
+         * The sorted layout is cached per sequence of field names,
+         * so records built in a loop are not sorted again.
+         */
+        public RecData toRec() {
+            if(count == 0) {
+                return RecData.EMPTY;
+            }
+            final RecordShape.Layout layout = RecordShape.layoutOf(names, count);
+            final int[] sources = layout.sources;
+            final QcertData[] dst = new QcertData[sources.length];
+            for(int i = 0; i < sources.length; i ++) {
+                dst[i] = values[sources[i]];
+            }
+            return new RecData(layout.shape, dst);
+        }
+
+        private String[] names;
+        private QcertData[] values;
+        private int count = 0;
     }
-	
 
-    private static JsonObject asRec(Object e) {
-        return ((JsonObject)e);
+    public static BagData createBag(QcertData... elems) {
+        return BagData.of(elems.clone());
     }
 
-    public static boolean either(JsonElement obj) {
-        final JsonObject rec = obj.getAsJsonObject();
-        if(rec.has("$left")) {
+    public static boolean either(QcertData obj) {
+        switch(obj.getKind()) {
+        case dleft:
             return true;
-        } else if(rec.has("$right")) {
+        case dright:
             return false;
-        } else {
+        default:
             throw new RuntimeException("RuntimeUtils.either: Expected an either, but got an " + obj);
         }
     }
 
-    public static JsonElement toLeft(JsonElement obj) {
-        return asRec(obj).get("$left");
+    public static QcertData toLeft(QcertData obj) {
+        return ((LeftData) obj).getValue();
     }
 
-    public static JsonElement toRight(JsonElement obj) {
-        return asRec(obj).get("$right");
+    public static QcertData toRight(QcertData obj) {
+        return ((RightData) obj).getValue();
     }
 
-    public static JsonElement[] collAsArray(JsonArray coll) {
-        final JsonElement[] arr = new JsonElement[coll.size()];
-        for(int i = 0; i < coll.size(); i ++) {
-            final JsonElement elem = coll.get(i);
-            arr[i] = elem;
-        }
-        return arr;
+    public static QcertData[] collAsArray(BagData coll) {
+        return coll.toArray();
     }
 
-    public static long asLong(JsonElement e) {
-        if(e.isJsonObject()) {
-            if (((JsonObject) e).has("$nat"))
-                return ((JsonObject) e).get("$nat").getAsLong();
-            else
-                return e.getAsLong();
-        } else
-            return e.getAsLong();
+    public static long asLong(QcertData e) {
+        return e.getAsLong();
     }
 
-    public static boolean asBoolean(JsonElement e) {
+    public static boolean asBoolean(QcertData e) {
         return e.getAsBoolean();
     }
 }
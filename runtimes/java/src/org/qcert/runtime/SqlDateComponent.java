@@ -11,23 +11,9 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-
 package org.qcert.runtime;
 
-import java.util.Arrays;
-import java.util.List;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashSet;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.TreeSet;
-import java.time.*;
-import java.time.format.DateTimeFormatter;
-
-import com.google.gson.*;
+import java.time.LocalDate;
 
 public class SqlDateComponent {
     public final static String YEAR = "YEAR";
@@ -35,138 +21,125 @@ public class SqlDateComponent {
     public final static String DAY = "DAY";
 
     /* Utilities */
-    private static JsonElement boxDate(LocalDate d) {
-        JsonObject result = new JsonObject();
-        JsonObject resultIn = new JsonObject();
-        JsonObject resultIn2 = new JsonObject();
-        resultIn2.add("year",new JsonPrimitive(d.getYear()));
-        resultIn2.add("month",new JsonPrimitive(d.getMonthValue()));
-        resultIn2.add("day",new JsonPrimitive(d.getDayOfMonth()));
-        resultIn.add("$date", resultIn2);
-        result.add("$foreign", resultIn);
-        return result;
+    private static long unboxDate(QcertData e) {
+        return ((DateData) e).getEpochDay();
     }
 
-    private static JsonObject getDate(JsonElement e) {
-        return ((JsonObject) ((JsonObject) ((JsonObject)e).get("$foreign")).get("$date"));
-    }
-    private static LocalDate unboxDate(JsonElement e) {
-        int year = getDate(e).get("year").getAsInt();
-        int month = getDate(e).get("month").getAsInt();
-        int day = getDate(e).get("day").getAsInt();
-        return LocalDate.of(year, month, day);
+    private static PeriodData unboxPeriod(QcertData e) {
+        return (PeriodData) e;
     }
 
-    private static JsonElement boxPeriod(Period p) {
-        JsonObject result = new JsonObject();
-        JsonObject resultIn = new JsonObject();
-        JsonObject resultIn2 = new JsonObject();
-        resultIn2.add("unit",new JsonPrimitive(DAY));
-        resultIn2.add("period",new JsonPrimitive(p.getDays()));
-        resultIn.add("$period", resultIn2);
-        result.add("$foreign", resultIn);
-        return result;
+    /*
+     * Months and years are added on the calendar, clamping the day to the
+     * end of the month when needed; days are added to the epoch day
+     */
+    private static long plus(long epochDay, PeriodData p, long sign) {
+        final long amount = sign * p.getAmount();
+        switch (p.getUnit()) {
+        case DAY:
+            return epochDay + amount;
+        case MONTH:
+            return LocalDate.ofEpochDay(epochDay).plusMonths(amount).toEpochDay();
+        case YEAR:
+            return LocalDate.ofEpochDay(epochDay).plusYears(amount).toEpochDay();
+        default:
+            throw new RuntimeException("Unknown period unit: " + p.getUnit());
+        }
     }
 
-    private static JsonObject getPeriod(JsonElement e) {
-        return ((JsonObject) ((JsonObject) ((JsonObject)e).get("$foreign")).get("period"));
-    }
-    private static Period unboxPeriod(JsonElement e) {
-        String unit = getPeriod(e).get("unit").getAsString();
-        int period = getPeriod(e).get("period").getAsInt();
-        Period result;
-        switch (unit) {
+    /* Operators */
+    public static QcertData sql_date_get_component(String part, QcertData e) {
+        LocalDate d = ((DateData) e).getDate();
+        long result;
+        switch (part) {
         case YEAR:
-            result = Period.ofYears(period);
+            result = d.getYear();
             break;
         case MONTH:
-            result = Period.ofMonths(period);
+            result = d.getMonthValue();
             break;
         case DAY:
-            result = Period.ofDays(period);
+            result = d.getDayOfMonth();
             break;
         default:
-            throw new RuntimeException("Unknown period unit: " + unit);
+            throw new RuntimeException("Unknown date component: " + part);
         }
-        return result;
+        return NatData.of(result);
     }
 
-    /* Operators */
-    public static JsonElement sql_date_get_component(String part, JsonElement e) {
-        LocalDate d = unboxDate(e);
-        JsonPrimitive result;
+    /*
+     * Out of range months and days carry over, as in the Javascript runtime;
+     * so does Feb 29 when the year is set to a year that is not a leap year
+     */
+    public static QcertData sql_date_set_component(String part, QcertData e1, QcertData e2) {
+        LocalDate d = ((DateData) e1).getDate();
+        long z = RuntimeUtils.asLong(e2);
         switch (part) {
         case YEAR:
-            result = new JsonPrimitive(d.getYear());
-            break;
+            return new DateData(LocalDate.of(Math.toIntExact(z), 1, 1).plusMonths(d.getMonthValue() - 1).plusDays(d.getDayOfMonth() - 1));
         case MONTH:
-            result = new JsonPrimitive(d.getMonthValue());
-            break;
+            return new DateData(LocalDate.of(d.getYear(), 1, 1).plusMonths(z - 1).plusDays(d.getDayOfMonth() - 1));
         case DAY:
-            result = new JsonPrimitive(d.getDayOfMonth());
-            break;
+            return new DateData(LocalDate.of(d.getYear(), d.getMonthValue(), 1).plusDays(z - 1));
         default:
             throw new RuntimeException("Unknown date component: " + part);
         }
-        return UnaryOperators.rec("$nat",result);
     }
 
-    public static JsonElement sql_date_from_string(JsonElement e) {
+    public static QcertData sql_date_from_string(QcertData e) {
         final String str = e.getAsString();
-        return boxDate(LocalDate.parse(str));
+        return new DateData(LocalDate.parse(str));
     }
 
-    public static JsonElement sql_date_period_from_string(JsonElement e) {
+    /*
+     * Periods are written as an amount and a unit, separated by a dash (e.g. 3-MONTH)
+     */
+    public static QcertData sql_date_period_from_string(QcertData e) {
         final String str = e.getAsString();
-        // XXX TODO extract period here
-        return boxPeriod(Period.parse("P1D"));
+        final int dash = str.lastIndexOf('-');
+        if (dash <= 0) {
+            throw new RuntimeException("Malformed string period: " + str);
+        }
+        try {
+            return new PeriodData(PeriodData.Unit.valueOf(str.substring(dash + 1)), Long.parseLong(str.substring(0, dash)));
+        } catch (IllegalArgumentException ex) {
+            throw new RuntimeException("Malformed string period: " + str);
+        }
     }
 
-    public static JsonElement sql_date_plus(JsonElement e1, JsonElement e2) {
-        LocalDate d1 = unboxDate(e1);
-        Period p2 = unboxPeriod(e2);
-        return boxDate(d1.plus(p2));
+    public static QcertData sql_date_plus(QcertData e1, QcertData e2) {
+        return new DateData(plus(unboxDate(e1), unboxPeriod(e2), 1));
     }
 
-    public static JsonElement sql_date_minus(JsonElement e1, JsonElement e2) {
-        LocalDate d1 = unboxDate(e1);
-        Period p2 = unboxPeriod(e2);
-        return boxDate(d1.minus(p2));
+    public static QcertData sql_date_minus(QcertData e1, QcertData e2) {
+        return new DateData(plus(unboxDate(e1), unboxPeriod(e2), -1));
     }
 
-    public static JsonPrimitive sql_date_ne(JsonElement e1, JsonElement e2) {
-        LocalDate d1 = unboxDate(e1);
-        LocalDate d2 = unboxDate(e2);
-        return new JsonPrimitive(!d1.isEqual(d2));
+    public static BoolData sql_date_ne(QcertData e1, QcertData e2) {
+        return BoolData.of(unboxDate(e1) != unboxDate(e2));
     }
 
-    public static JsonPrimitive sql_date_lt(JsonElement e1, JsonElement e2) {
-        LocalDate d1 = unboxDate(e1);
-        LocalDate d2 = unboxDate(e2);
-        return new JsonPrimitive(d1.isBefore(d2));
+    public static BoolData sql_date_lt(QcertData e1, QcertData e2) {
+        return BoolData.of(unboxDate(e1) < unboxDate(e2));
     }
 
-    public static JsonPrimitive sql_date_le(JsonElement e1, JsonElement e2) {
-        LocalDate d1 = unboxDate(e1);
-        LocalDate d2 = unboxDate(e2);
-        return new JsonPrimitive(d1.isBefore(d2) || d1.isEqual(d2));
+    public static BoolData sql_date_le(QcertData e1, QcertData e2) {
+        return BoolData.of(unboxDate(e1) <= unboxDate(e2));
     }
 
-    public static JsonPrimitive sql_date_gt(JsonElement e1, JsonElement e2) {
-        LocalDate d1 = unboxDate(e1);
-        LocalDate d2 = unboxDate(e2);
-        return new JsonPrimitive(d1.isAfter(d2));
+    public static BoolData sql_date_gt(QcertData e1, QcertData e2) {
+        return BoolData.of(unboxDate(e1) > unboxDate(e2));
     }
 
-    public static JsonPrimitive sql_date_ge(JsonElement e1, JsonElement e2) {
-        LocalDate d1 = unboxDate(e1);
-        LocalDate d2 = unboxDate(e2);
-        return new JsonPrimitive(d1.isAfter(d2) || d1.isEqual(d2));
+    public static BoolData sql_date_ge(QcertData e1, QcertData e2) {
+        return BoolData.of(unboxDate(e1) >= unboxDate(e2));
     }
 
-    public static JsonElement sql_date_period_between(JsonElement e1, JsonElement e2) {
-        LocalDate d1 = unboxDate(e1);
-        LocalDate d2 = unboxDate(e2);
-        return boxPeriod(Period.between(d1, d2));
+    /*
+     * The number of days from the second date to the first, as in the
+     * reference implementation (sql_date_component.ml)
+     */
+    public static QcertData sql_date_period_between(QcertData e1, QcertData e2) {
+        return new PeriodData(PeriodData.Unit.DAY, unboxDate(e1) - unboxDate(e2));
     }
 }
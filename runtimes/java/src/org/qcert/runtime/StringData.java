@@ -0,0 +1,99 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.qcert.runtime;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Represents the dstring data constructor.
+ * Strings can be dictionary encoded: within a {@link Dictionary}, each
+ * distinct string is represented by a single instance, so two different
+ * instances of the same dictionary are different strings.
+ * Input data is encoded with one dictionary per conversion (see
+ * {@link JsonConverter}), which lives as long as the data does.  String
+ * constants of the generated code share a global dictionary, which is
+ * bounded by the size of the code.
+ */
+public final class StringData extends QcertData {
+	private static final Dictionary literals = new Dictionary(new ConcurrentHashMap<String, StringData>());
+
+	private final String value;
+	// The dictionary this string belongs to, or null
+	private final Dictionary dictionary;
+
+	public StringData(String value) {
+		this(value, null);
+	}
+
+	private StringData(String value, Dictionary dictionary) {
+		this.value = value;
+		this.dictionary = dictionary;
+	}
+
+	/**
+	 * Strings that are encoded together, with a single instance per distinct
+	 * string.  Only the dictionary of literals can be used concurrently.
+	 */
+	static final class Dictionary {
+		private final Map<String, StringData> strings;
+
+		Dictionary() {
+			this(new HashMap<String, StringData>());
+		}
+
+		private Dictionary(Map<String, StringData> strings) {
+			this.strings = strings;
+		}
+
+		StringData encode(String value) {
+			StringData str = strings.get(value);
+			if(str == null) {
+				final StringData fresh = new StringData(value, this);
+				str = strings.putIfAbsent(value, fresh);
+				if(str == null) {
+					str = fresh;
+				}
+			}
+			return str;
+		}
+	}
+
+	/**
+	 * For the string constants of the generated code
+	 * @return the shared instance for this string
+	 */
+	public static StringData intern(String value) {
+		return literals.encode(value);
+	}
+
+	/*
+	 * True if the two strings are certainly different, which is known without
+	 * looking at them when they are different instances of the same dictionary
+	 */
+	static boolean distinct(StringData s1, StringData s2) {
+		return s1 != s2 && s1.dictionary != null && s1.dictionary == s2.dictionary;
+	}
+
+	@Override
+	public Kind getKind() {
+		return Kind.dstring;
+	}
+
+	@Override
+	public String getAsString() {
+		return value;
+	}
+}
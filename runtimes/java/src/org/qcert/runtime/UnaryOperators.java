@@ -14,277 +14,244 @@
 
 package org.qcert.runtime;
 
-import java.util.Arrays;
-import java.util.List;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashSet;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
-
-import com.google.gson.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class UnaryOperators {
 	
-    private static Set<String> collToBrands(JsonArray coll) {
-        final Set<String> dst = new HashSet<String>(coll.size());
-        for(final JsonElement elem : coll) {
-            dst.add(elem.getAsString());
-        }
-        return dst;
+    public static QcertData abs(QcertData e) {
+        return NatData.of(Math.abs(e.getAsLong()));
     }
 
-    private static TreeSet<JsonElement> collToTreeSet(JsonArray coll) {
-        final TreeSet<JsonElement> dst = new TreeSet<JsonElement>(DataComparator.getComparator());
-        for(final JsonElement elem : coll) {
-            dst.add(elem);
-        }
-        return dst;
+    public static QcertData log2(QcertData e) {
+        return NatData.of((long) (Math.log(e.getAsLong()) / Math.log(2)));
     }
-
-
-    public static JsonElement abs(JsonElement e) {
-        return new JsonPrimitive(Math.abs(e.getAsLong()));
+    public static QcertData sqrt(QcertData e) {
+        return NatData.of((long) Math.sqrt(e.getAsLong()));
     }
-
-    public static JsonElement log2(JsonElement e) {
-        return new JsonPrimitive(Math.log(e.getAsLong()) / Math.log(2));
-    }
-    public static JsonElement sqrt(JsonElement e) {
-        return new JsonPrimitive((Math.sqrt(e.getAsLong())));
-    }
-    public static JsonElement neg(JsonElement e) {
-        return new JsonPrimitive(! e.getAsBoolean());
+    public static QcertData neg(QcertData e) {
+        return BoolData.of(! e.getAsBoolean());
     }
 	
-    public static JsonElement coll(JsonElement e) {
-        JsonArray dst = new JsonArray();
-        dst.add(e);
-        return dst;
+    public static QcertData coll(QcertData e) {
+        return RuntimeUtils.createBag(e);
     }
-    public static JsonElement count(JsonElement e) {
-        return rec("$nat",new JsonPrimitive(e.getAsJsonArray().size()));
+    public static QcertData count(QcertData e) {
+        return NatData.of(e.getAsBag().size());
     }
 	
-    public static JsonElement flatten(JsonElement e) {
-        final JsonArray dst = new JsonArray();
-        final JsonArray src = e.getAsJsonArray();
-        for(final JsonElement elem : src) {
-            dst.addAll(elem.getAsJsonArray());
+    public static QcertData flatten(QcertData e) {
+        // Bags are immutable, so the inner bags are linked rather than copied
+        final BagData src = e.getAsBag();
+        if(src instanceof LazyBagData) {
+            // Fuse with the stages computing the inner bags
+            return src.flatMap(QcertData::getAsBag);
+        }
+        final List<BagData> inner = new ArrayList<BagData>(src.size());
+        for(final QcertData elem : src) {
+            final BagData bag = elem.getAsBag();
+            if(bag instanceof LazyBagData) {
+                return src.flatMap(QcertData::getAsBag);
+            }
+            inner.add(bag);
         }
-        return dst;
+        return ConcatBagData.concat(inner);
     }
 	
-    public static JsonElement rec(String f, JsonElement e) {
-        JsonObject dst = new JsonObject();
-        dst.add(f, e);
-        return dst;
+    public static QcertData rec(String f, QcertData e) {
+        return new RecData(RecordShape.of(f), new QcertData[] { e });
     }
-    public static JsonElement dot(String f, JsonElement e) {
-        return e.getAsJsonObject().get(f);
+    public static QcertData dot(String f, QcertData e) {
+        return e.getAsRec().get(f);
     }
 	
-    public static JsonElement remove(String f, JsonElement e) {
-        final JsonObject er = e.getAsJsonObject();
-        final JsonObject dst = new JsonObject();
-        for(Entry<String, JsonElement> entry : er.entrySet()) {
-            String key = entry.getKey();
-            if(! f.equals(key)) {
-                dst.add(key, entry.getValue());
-            }
+    public static QcertData remove(String f, QcertData e) {
+        final RecData er = e.getAsRec();
+        if(! er.has(f)) {
+            return er;
         }
-        return dst;
+        return new RecData(er.getShape().remove(f), er, null);
     }
 	
-    public static JsonElement project(Collection<String> fs, JsonElement e) {
-        final JsonObject er = e.getAsJsonObject();
-        final JsonObject dst = new JsonObject();
-        for(Entry<String, JsonElement> entry : er.entrySet()) {
-            String key = entry.getKey();
-            if(fs.contains(key)) {
-                dst.add(key, entry.getValue());
-            }
-        }
-        return dst;
+    public static QcertData project(Collection<String> fs, QcertData e) {
+        final RecData er = e.getAsRec();
+        return new RecData(er.getShape().project(fs), er, null);
     }
 	
-    public static JsonElement distinct(JsonElement e) {
-        final JsonArray ec = e.getAsJsonArray();
-        final TreeSet<JsonElement> treeSet = collToTreeSet(ec);
-        JsonArray dst = new JsonArray();
-        for(JsonElement elem : treeSet) {
-            dst.add(elem);
-        }
+    /*
+     * Grouping of large bags is done in parallel (partial groups for each
+     * slice of the bag, merged in order) when the qcert.parallel system
+     * property is set
+     */
+    private static final boolean parallelGroupBy = Boolean.getBoolean("qcert.parallel");
+    private static final int PARALLEL_GROUPBY_SLICE = 1 << 15;
 
-        return dst;
-    }
-	
-	
-    private static long sum_helper(JsonArray ec) {
-        long acc = 0;
-        for (JsonElement elem : ec) {
-            acc += ((JsonObject) elem).get("$nat").getAsLong();
+    /*
+     * Adds the records to their group, keyed by their projection on the keys.
+     * The projection layout only depends on the shape of the record, and
+     * the records of a bag usually all have the same shape
+     */
+    private static LinkedHashMap<QcertData, RuntimeUtils.BagBuilder> groups(Collection<String> keys, Iterable<QcertData> elems) {
+        final LinkedHashMap<QcertData, RuntimeUtils.BagBuilder> groups = new LinkedHashMap<QcertData, RuntimeUtils.BagBuilder>();
+        RecordShape shape = null;
+        RecordShape.Layout layout = null;
+        for(final QcertData elem : elems) {
+            final RecData rec = elem.getAsRec();
+            if(rec.getShape() != shape) {
+                shape = rec.getShape();
+                layout = shape.project(keys);
+            }
+            final RecData key = new RecData(layout, rec, null);
+            RuntimeUtils.BagBuilder group = groups.get(key);
+            if(group == null) {
+                group = new RuntimeUtils.BagBuilder();
+                groups.put(key, group);
+            }
+            group.add(rec);
         }
-        return acc;
+        return groups;
     }
 
-    public static JsonElement sum(JsonElement e) {
-        return rec("$nat",new JsonPrimitive(sum_helper(e.getAsJsonArray())));
-    }
-	
-    private static void tostring(StringBuilder sb, JsonPrimitive jp) {
-        if (jp.isString()) {
-            sb.append(jp.getAsString());
-        } else if (jp.isNumber()) {
-            sb.append(jp.getAsDouble());
+    /*
+     * Groups the records of the bag by their value on the keys, in a
+     * single pass: each group is the record of the keys, with the bag
+     * of the records in the group as field g
+     */
+    public static QcertData groupby(String g, Collection<String> keys, QcertData e) {
+        final BagData ec = e.getAsBag();
+        final LinkedHashMap<QcertData, List<BagData>> groups = new LinkedHashMap<QcertData, List<BagData>>();
+        if(parallelGroupBy && ec.size() >= 2 * PARALLEL_GROUPBY_SLICE) {
+            final int size = ec.size();
+            final int slices = (size + PARALLEL_GROUPBY_SLICE - 1) / PARALLEL_GROUPBY_SLICE;
+            final List<LinkedHashMap<QcertData, RuntimeUtils.BagBuilder>> partials = IntStream.range(0, slices).parallel()
+                .mapToObj(slice -> groups(keys, () -> IntStream.range(slice * PARALLEL_GROUPBY_SLICE, Math.min(size, (slice + 1) * PARALLEL_GROUPBY_SLICE))
+                                                   .mapToObj(ec::get).iterator()))
+                .collect(Collectors.toList());
+            // Merged in order, so groups and their elements keep the order of the input
+            for(final LinkedHashMap<QcertData, RuntimeUtils.BagBuilder> partial : partials) {
+                for(final Map.Entry<QcertData, RuntimeUtils.BagBuilder> entry : partial.entrySet()) {
+                    List<BagData> group = groups.get(entry.getKey());
+                    if(group == null) {
+                        group = new ArrayList<BagData>(slices);
+                        groups.put(entry.getKey(), group);
+                    }
+                    group.add(entry.getValue().result());
+                }
+            }
         } else {
-            sb.append(jp.toString());
-        }
-    }
-	
-    public static void tostring(StringBuilder sb, JsonArray ec) {
-        String elemstrings[] = new String[ec.size()];
-        for(int i = 0; i < ec.size(); i ++) {
-            final JsonElement elem = ec.get(i);
-            StringBuilder sbelem = new StringBuilder();
-            tostring(sbelem, elem);
-            elemstrings[i] = sbelem.toString();
-        }
-        Arrays.sort(elemstrings);
-
-        sb.append("[");
-        boolean isFirst = true;
-        for(String elem : elemstrings) {
-            if(isFirst) {
-                isFirst = false;
-            } else {
-                sb.append(", ");
+            for(final Map.Entry<QcertData, RuntimeUtils.BagBuilder> entry : groups(keys, ec).entrySet()) {
+                groups.put(entry.getKey(), Collections.singletonList(entry.getValue().result()));
             }
-
-            sb.append(elem);
         }
-        sb.append("]");
+        final RuntimeUtils.BagBuilder dst = new RuntimeUtils.BagBuilder(groups.size());
+        for(final Map.Entry<QcertData, List<BagData>> entry : groups.entrySet()) {
+            dst.add(BinaryOperators.concat(entry.getKey(), rec(g, ConcatBagData.concat(entry.getValue()))));
+        }
+        return dst.result();
     }
 
-    private static <V> void tostring(StringBuilder sb, JsonObject o){
-        if (o.has("$nat")) { // integer
-            sb.append(o.get("$nat").getAsLong());
-        } else if (o.has("$class")) { // branded value
-            sb.append("<");
-            sb.append(o.get("$class").getAsString());
-            sb.append(":");
-            tostring(sb,o.get("$data"));
-            sb.append(">");
-        } else { // record
-            sb.append("{");
-            // Sort based on keys first
-            Set<Entry<String,JsonElement>> entryset = o.entrySet();
-            List<Entry<String,JsonElement>> entrylist = new ArrayList<Entry<String,JsonElement>>(entryset);
-            Comparator<Entry<String,JsonElement>> compareByKey = new Comparator<Entry<String,JsonElement>>() {
-                    @Override
-                    public int compare(Entry<String,JsonElement> e1, Entry<String,JsonElement> e2) {
-                        return e1.getKey().compareTo( e2.getKey() );
-                    }
-                };
+    /*
+     * Sorts the records of the bag on the given fields (see OrderBy)
+     */
+    public static QcertData sort(Collection<String> fields, QcertData e) {
+        return OrderBy.sort(fields, e.getAsBag());
+    }
 
-            Collections.sort(entrylist, compareByKey);
+    /*
+     * The first k records of the bag sorted on the given fields (see OrderBy)
+     */
+    public static QcertData topk(Collection<String> fields, long k, QcertData e) {
+        return OrderBy.topk(fields, e.getAsBag(), k);
+    }
 
-            boolean isFirst = true;
-            for(Entry<String, JsonElement>entry : entrylist) {
-                if(isFirst) {
-                    isFirst = false;
-                } else {
-                    sb.append(", ");
-                }
-                sb.append(entry.getKey());
-                sb.append("->");
-                tostring(sb,entry.getValue());
+    public static QcertData distinct(QcertData e) {
+        // Keeps the first occurrence of each value, in order
+        final BagData ec = e.getAsBag();
+        final HashSet<QcertData> seen = new HashSet<QcertData>();
+        final RuntimeUtils.BagBuilder dst = new RuntimeUtils.BagBuilder();
+        for(final QcertData elem : ec) {
+            if(seen.add(elem)) {
+                dst.add(elem);
             }
-            sb.append("}");
         }
+        return dst.result();
+    }
+	
+	
+    private static long sum_helper(BagData ec) {
+        return ec.sumLong();
     }
 
-    private static void tostring(StringBuilder sb, JsonElement e) {
-        if(e == null || e.isJsonNull()) {
-            sb.append("null");
-        } else if (e.isJsonPrimitive()) {
-            tostring(sb, e.getAsJsonPrimitive());
-        } else if(e.isJsonArray()) {
-            tostring(sb, e.getAsJsonArray());
-        } else if(e.isJsonObject()) {
-            final JsonObject er = e.getAsJsonObject();
-            tostring(sb, er);
-        } else {
-            sb.append(e.toString());
-        }
+    public static QcertData sum(QcertData e) {
+        return NatData.of(sum_helper(e.getAsBag()));
     }
 	
-    public static JsonPrimitive tostring(JsonElement e) {
-        StringBuilder sb = new StringBuilder();
-        tostring(sb, e);
-        return new JsonPrimitive(sb.toString());
+    public static void tostring(StringBuilder sb, BagData ec) {
+        CanonicalText.write(sb, ec);
+    }
+
+    public static StringData tostring(QcertData e) {
+        return new StringData(CanonicalText.toText(e));
+    }
+
+    public static StringData totext(QcertData e) {
+        return new StringData(CanonicalText.toText(e));
     }
 	
-    public static JsonElement stringlength(JsonElement e) {
-        String str = e.getAsJsonPrimitive().getAsString();
-        return rec("$nat",new JsonPrimitive(str.length()));
+    public static QcertData stringlength(QcertData e) {
+        String str = e.getAsString();
+        return NatData.of(str.length());
     }
 
-    public static JsonElement substring(int start, int end, JsonElement e) {
-        String str = e.getAsJsonPrimitive().getAsString();
-        return new JsonPrimitive(str.substring(start, end));
+    public static QcertData substring(int start, int end, QcertData e) {
+        String str = e.getAsString();
+        return new StringData(str.substring(start, end));
     }
 
-    public static JsonElement substring(int start, JsonElement e) {
-        String str = e.getAsJsonPrimitive().getAsString();
-        return new JsonPrimitive(str.substring(start));
+    public static QcertData substring(int start, QcertData e) {
+        String str = e.getAsString();
+        return new StringData(str.substring(start));
     }
 
-    public static JsonElement left(JsonElement e) {
-        return rec("$left", e);
+    public static QcertData left(QcertData e) {
+        return new LeftData(e);
     }
-    public static JsonElement right(JsonElement e) {
-        return rec("$right", e);
+    public static QcertData right(QcertData e) {
+        return e == QcertData.UNIT ? dnone : new RightData(e);
     }
 	
-    public static JsonElement brand(Collection<String> brands, JsonElement e) {
-        final JsonObject dst = new JsonObject();
-        dst.add("$data", e);
-		
-        JsonArray brands_dst = new JsonArray();
-        for(final String br : brands) {
-            brands_dst.add(br);
-        }
-        dst.add("$class", brands_dst);
-        return dst;
+    public static QcertData brand(Collection<String> brands, QcertData e) {
+        return new BrandData(brands, e);
     }
-    public static JsonElement unbrand(JsonElement e) {
-        return e.getAsJsonObject().get("$data");
+    public static QcertData unbrand(QcertData e) {
+        return ((BrandData) e).getData();
     }
 	
-    public static JsonElement cast(Inheritance inheritance, Collection<String> brands, JsonElement e) {
-        final JsonObject er = e.getAsJsonObject();
-        final JsonArray typs = er.get("$class").getAsJsonArray();
-        Set<String> actualBrands = collToBrands(typs);
-        if(inheritance.isAssignableFrom(brands, actualBrands)) {
+    public static QcertData cast(Inheritance inheritance, Collection<String> brands, QcertData e) {
+        final BrandData er = (BrandData) e;
+        if(inheritance.isAssignableFrom(Brands.intern(brands), er.getBrandSet())) {
             return left(e);
         } else {
             return right(e);
         }
     }
 	
-    public static final JsonElement dnone = mk_right_none();
+    public static final QcertData dnone = mk_right_none();
 	
-    private static JsonElement mk_right_none() {
-        return right(JsonNull.INSTANCE);
+    private static QcertData mk_right_none() {
+        return new RightData(QcertData.UNIT);
     }
 
-    public static JsonElement singleton(JsonElement e) {
-        JsonArray ec = e.getAsJsonArray();
+    public static QcertData singleton(QcertData e) {
+        BagData ec = e.getAsBag();
         if(ec.size() == 1) {
             return left(ec.get(0));
         } else {
@@ -292,126 +259,80 @@ public class UnaryOperators {
         }
     }
 	
-    public static JsonElement list_mean(JsonElement e) {
-        final JsonArray ec = e.getAsJsonArray();
+    public static QcertData list_mean(QcertData e) {
+        final BagData ec = e.getAsBag();
         if(ec.size() == 0) {
-            return new JsonPrimitive(0L);
+            return NatData.of(0L);
         } else {
-            return rec("$nat",new JsonPrimitive(sum_helper(ec) / ec.size()));
+            return NatData.of(sum_helper(ec) / ec.size());
         }
     }
-    public static JsonElement list_min(JsonElement e) {
-        final JsonArray ec = e.getAsJsonArray();
-        long min = Long.MAX_VALUE;
-        for(final JsonElement elem : ec) {
-            final long eleml = elem.getAsLong();
-            if(eleml < min) {
-                min = eleml;
-            }
-        }
-        return new JsonPrimitive(min);
-    }
-    public static JsonElement list_max(JsonElement e) {
-        final JsonArray ec = e.getAsJsonArray();
-        long max = Long.MIN_VALUE;
-        for(final JsonElement elem : ec) {
-            final long eleml = elem.getAsLong();
-            if(eleml > max) {
-                max = eleml;
-            }
-        }
-        return new JsonPrimitive(max);
+    public static QcertData list_min(QcertData e) {
+        return NatData.of(e.getAsBag().minLong());
+    }
+    public static QcertData list_max(QcertData e) {
+        return NatData.of(e.getAsBag().maxLong());
     }
 
     // floating point
-    public static JsonElement float_neg(JsonElement e) {
-        return new JsonPrimitive(- e.getAsDouble());
+    public static QcertData float_neg(QcertData e) {
+        return FloatData.of(- e.getAsDouble());
     }
-    public static JsonElement float_sqrt(JsonElement e) {
-        return new JsonPrimitive(Math.sqrt(e.getAsDouble()));
+    public static QcertData float_sqrt(QcertData e) {
+        return FloatData.of(Math.sqrt(e.getAsDouble()));
     }
-    public static JsonElement float_exp(JsonElement e) {
-        return new JsonPrimitive(Math.exp(e.getAsDouble()));
+    public static QcertData float_exp(QcertData e) {
+        return FloatData.of(Math.exp(e.getAsDouble()));
     }
-    public static JsonElement float_log(JsonElement e) {
-        return new JsonPrimitive(Math.log(e.getAsDouble()));
+    public static QcertData float_log(QcertData e) {
+        return FloatData.of(Math.log(e.getAsDouble()));
     }
-    public static JsonElement float_log10(JsonElement e) {
-        return new JsonPrimitive(Math.log10(e.getAsDouble()));
+    public static QcertData float_log10(QcertData e) {
+        return FloatData.of(Math.log10(e.getAsDouble()));
     }
-    public static JsonElement float_of_int(JsonElement e) {
-        if(e.isJsonObject()) {
-            if (((JsonObject) e).has("$nat")) {
-                return new JsonPrimitive(((JsonObject) e).get("$nat").getAsLong());
-            } else return new JsonPrimitive(e.getAsLong());
-        } else return new JsonPrimitive(e.getAsLong());
+    public static QcertData float_of_int(QcertData e) {
+        return FloatData.of(e.getAsLong());
     }
-    public static JsonElement float_ceil(JsonElement e) {
-        return new JsonPrimitive(Math.ceil(e.getAsDouble()));
+    public static QcertData float_ceil(QcertData e) {
+        return FloatData.of(Math.ceil(e.getAsDouble()));
     }
-    public static JsonElement float_floor(JsonElement e) {
-        return new JsonPrimitive(Math.floor(e.getAsDouble()));
+    public static QcertData float_floor(QcertData e) {
+        return FloatData.of(Math.floor(e.getAsDouble()));
     }
-    public static JsonElement float_truncate(JsonElement e) {
-        return new JsonPrimitive(e.getAsNumber().longValue());
+    public static QcertData float_truncate(QcertData e) {
+        return NatData.of((long) e.getAsDouble());
     }
-    public static JsonElement float_abs(JsonElement e) {
-        return new JsonPrimitive(Math.abs(e.getAsDouble()));
+    public static QcertData float_abs(QcertData e) {
+        return FloatData.of(Math.abs(e.getAsDouble()));
     }
 	
-    public static double float_sum_helper(JsonArray ec) {
-        double acc = 0.0d;
-        for (JsonElement elem : ec) {
-            acc += elem.getAsDouble();
-        }
-        return acc;
+    public static double float_sum_helper(BagData ec) {
+        return ec.sumDouble();
     }
 	
-    public static JsonElement float_sum(JsonElement e) {
-        return new JsonPrimitive(float_sum_helper(e.getAsJsonArray()));
+    public static QcertData float_sum(QcertData e) {
+        return FloatData.of(float_sum_helper(e.getAsBag()));
     }
 	
-    public static JsonElement float_list_mean(JsonElement e) {
-        final JsonArray ec = e.getAsJsonArray();
+    public static QcertData float_list_mean(QcertData e) {
+        final BagData ec = e.getAsBag();
         if(ec.size() == 0) {
-            return new JsonPrimitive(0d);
+            return FloatData.of(0d);
         } else {
-            return new JsonPrimitive(float_sum_helper(ec) / (double)ec.size());
+            return FloatData.of(float_sum_helper(ec) / (double)ec.size());
         }
 
     }
-    public static JsonElement float_list_min(JsonElement e) {
-        final JsonArray ec = e.getAsJsonArray();
-        double min = Double.MAX_VALUE;
-        for(final JsonElement elem : ec) {
-            final double eleml = elem.getAsDouble();
-            if(eleml < min) {
-                min = eleml;
-            }
-        }
-        return new JsonPrimitive(min);
+    public static QcertData float_list_min(QcertData e) {
+        return FloatData.of(e.getAsBag().minDouble());
     }
 	
-    public static JsonElement float_list_max(JsonElement e) {
-        final JsonArray ec = e.getAsJsonArray();
-        double max = Double.MIN_VALUE;
-        for(final JsonElement elem : ec) {
-            final double eleml = elem.getAsDouble();
-            if(eleml > max) {
-                max = eleml;
-            }
-        }
-        return new JsonPrimitive(max);
+    public static QcertData float_list_max(QcertData e) {
+        return FloatData.of(e.getAsBag().maxDouble());
     }
 
-    public static JsonElement string_like(LikeClause[] clauses, JsonElement elem) {
-        final String str = elem.getAsString();
-        String pat = "";
-        for(LikeClause clause : clauses) {
-            pat += clause.getRegex();
-        }
-        boolean matches = Pattern.matches(pat, str);
-        return new JsonPrimitive(matches);
+    public static QcertData string_like(LikeClause[] clauses, QcertData elem) {
+        return BoolData.of(LikeMatchers.get(clauses).test(elem.getAsString()));
     }
 	
     public static interface LikeClause {
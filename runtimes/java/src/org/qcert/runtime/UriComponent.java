@@ -14,40 +14,121 @@
 
 package org.qcert.runtime;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
-import java.util.List;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashSet;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.TreeSet;
-import java.util.regex.Pattern;
-import java.net.*;
-import java.io.UnsupportedEncodingException;
-
-import com.google.gson.*;
 
+/**
+ * Percent-encoding of URI components, with the same results as
+ * encodeURIComponent and decodeURIComponent in the JavaScript runtime:
+ * the RFC 3986 unreserved characters, and !'()*, are left as is.
+ */
 public class UriComponent {
-	
-    public static JsonElement uriEncode(JsonElement elem) {
-        final String str = elem.getAsString();
-        String result;
-
-        try {
-            result = URLEncoder.encode(str, "UTF-8")
-                .replaceAll("\\+", "%20")
-                .replaceAll("\\%21", "!")
-                .replaceAll("\\%27", "'")
-                .replaceAll("\\%28", "(")
-                .replaceAll("\\%29", ")")
-                .replaceAll("\\%7E", "~");
-        } catch (UnsupportedEncodingException e) {
-            result = str;
-        }
-
-        return new JsonPrimitive(result);
-    }
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	// The ASCII characters that are not escaped
+	private static final boolean[] KEEP = new boolean[128];
+	static {
+		for(char c = 'a'; c <= 'z'; c ++) {
+			KEEP[c] = true;
+		}
+		for(char c = 'A'; c <= 'Z'; c ++) {
+			KEEP[c] = true;
+		}
+		for(char c = '0'; c <= '9'; c ++) {
+			KEEP[c] = true;
+		}
+		for(final char c : "-_.!~*'()".toCharArray()) {
+			KEEP[c] = true;
+		}
+	}
+
+	// Each thread encodes into its own buffer, which is reused
+	private static final ThreadLocal<StringBuilder> buffers = ThreadLocal.withInitial(StringBuilder::new);
+
+	public static QcertData uriEncode(QcertData elem) {
+		final String str = elem.getAsString();
+		int start = 0;
+		while(start < str.length() && keep(str.charAt(start))) {
+			start ++;
+		}
+		if(start == str.length()) {
+			return elem;
+		}
+		final StringBuilder sb = buffers.get();
+		sb.setLength(0);
+		sb.append(str, 0, start);
+		for(int i = start; i < str.length(); i ++) {
+			final char c = str.charAt(i);
+			if(keep(c)) {
+				sb.append(c);
+			} else if(c < 0x80) {
+				escape(sb, c);
+			} else if(c < 0x800) {
+				escape(sb, 0xC0 | (c >> 6));
+				escape(sb, 0x80 | (c & 0x3F));
+			} else if(! Character.isSurrogate(c)) {
+				escape(sb, 0xE0 | (c >> 12));
+				escape(sb, 0x80 | ((c >> 6) & 0x3F));
+				escape(sb, 0x80 | (c & 0x3F));
+			} else if(Character.isHighSurrogate(c) && i + 1 < str.length() && Character.isLowSurrogate(str.charAt(i + 1))) {
+				final int cp = Character.toCodePoint(c, str.charAt(++ i));
+				escape(sb, 0xF0 | (cp >> 18));
+				escape(sb, 0x80 | ((cp >> 12) & 0x3F));
+				escape(sb, 0x80 | ((cp >> 6) & 0x3F));
+				escape(sb, 0x80 | (cp & 0x3F));
+			} else {
+				// a lone surrogate is replaced, as by the UTF-8 encoder
+				escape(sb, '?');
+			}
+		}
+		return new StringData(sb.toString());
+	}
+
+	public static QcertData uriDecode(QcertData elem) {
+		final String str = elem.getAsString();
+		final int first = str.indexOf('%');
+		if(first < 0) {
+			return elem;
+		}
+		final StringBuilder sb = buffers.get();
+		sb.setLength(0);
+		sb.append(str, 0, first);
+		byte[] bytes = null;
+		int i = first;
+		while(i < str.length()) {
+			final char c = str.charAt(i);
+			if(c != '%') {
+				sb.append(c);
+				i ++;
+				continue;
+			}
+			// a run of escapes is decoded as a whole, since it may be a multi-byte character
+			int count = 0;
+			while(i < str.length() && str.charAt(i) == '%') {
+				if(bytes == null || count == bytes.length) {
+					bytes = bytes == null ? new byte[Math.max(4, (str.length() - i) / 3)] : Arrays.copyOf(bytes, 2 * count);
+				}
+				bytes[count ++] = (byte) ((hex(str, i + 1) << 4) | hex(str, i + 2));
+				i += 3;
+			}
+			sb.append(new String(bytes, 0, count, StandardCharsets.UTF_8));
+		}
+		return new StringData(sb.toString());
+	}
+
+	private static boolean keep(char c) {
+		return c < 0x80 && KEEP[c];
+	}
+
+	private static void escape(StringBuilder sb, int b) {
+		sb.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+	}
+
+	private static int hex(String str, int i) {
+		final int digit = i < str.length() && str.charAt(i) < 0x80 ? Character.digit(str.charAt(i), 16) : -1;
+		if(digit < 0) {
+			throw new IllegalArgumentException("Malformed URI component: " + str);
+		}
+		return digit;
+	}
 }
@@ -0,0 +1,157 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.lang.management.ManagementFactory;
+
+import org.qcert.runtime.BagData;
+import org.qcert.runtime.BinaryOperators;
+import org.qcert.runtime.NatData;
+import org.qcert.runtime.QcertData;
+import org.qcert.runtime.RuntimeUtils;
+import org.qcert.runtime.StringData;
+import org.qcert.runtime.UnaryOperators;
+
+/**
+ * Allocation regression test for the Java runtime.
+ * Runs queries written the way the code generator writes them, and checks
+ * the number of bytes allocated per input row, as reported by the JVM for
+ * the current thread.  Scalar operators (comparisons, booleans, small
+ * numbers, constants) must not allocate.
+ */
+public class AllocationTest {
+	private static final int ROWS = 100000;
+	private static final int WARMUP = 20;
+
+	private static final String[] CITIES = { "NYC", "SF", "Paris", "Tokyo" };
+
+	private static QcertData persons() {
+		final RuntimeUtils.BagBuilder persons = new RuntimeUtils.BagBuilder(ROWS);
+		for(int i = 0; i < ROWS; i ++) {
+			persons.add(new RuntimeUtils.RecBuilder()
+					.add("name", new StringData("p" + i))
+					.add("age", NatData.of(i % 60))
+					.add("city", new StringData(CITIES[i % CITIES.length]))
+					.toRec());
+		}
+		return persons.result();
+	}
+
+	/* count of the persons under 30 living in NYC */
+	private static QcertData filterCount(QcertData persons) {
+		final BagData matches = ((BagData) persons).map(p -> {
+			final QcertData cond = BinaryOperators.and(
+					BinaryOperators.lt(UnaryOperators.dot("age", p), NatData.of(30L)),
+					BinaryOperators.equals(UnaryOperators.dot("city", p), StringData.intern("NYC")));
+			return cond.getAsBoolean() ? UnaryOperators.coll(p) : BagData.EMPTY;
+		});
+		return UnaryOperators.count(UnaryOperators.flatten(matches));
+	}
+
+	/* sum of the ages of the persons not living in Paris */
+	private static QcertData sumAges(QcertData persons) {
+		final BagData ages = ((BagData) persons).map(p -> {
+			final QcertData cond = UnaryOperators.neg(
+					BinaryOperators.equals(UnaryOperators.dot("city", p), StringData.intern("Paris")));
+			return cond.getAsBoolean() ? UnaryOperators.dot("age", p) : NatData.of(0L);
+		});
+		return UnaryOperators.sum(ages);
+	}
+
+	/* count of the persons whose name is like 'p1_3%' */
+	private static QcertData likeCount(QcertData persons) {
+		final BagData matches = ((BagData) persons).map(p -> {
+			final QcertData cond = UnaryOperators.string_like(new UnaryOperators.LikeClause[] {
+					new UnaryOperators.LiteralLikeClause("p1"),
+					new UnaryOperators.AnyCharLikeClause(),
+					new UnaryOperators.LiteralLikeClause("3"),
+					new UnaryOperators.AnyStringLikeClause() }, UnaryOperators.dot("name", p));
+			return cond.getAsBoolean() ? UnaryOperators.coll(p) : BagData.EMPTY;
+		});
+		return UnaryOperators.count(UnaryOperators.flatten(matches));
+	}
+
+	private interface Query {
+		QcertData run(QcertData input);
+	}
+
+	/*
+	 * @return the bytes allocated per row by one run, after warm-up
+	 */
+	private static double bytesPerRow(com.sun.management.ThreadMXBean threads, Query query, QcertData input, long expected) {
+		for(int i = 0; i < WARMUP; i ++) {
+			check(query.run(input), expected);
+		}
+		final long tid = Thread.currentThread().getId();
+		final long before = threads.getThreadAllocatedBytes(tid);
+		final QcertData result = query.run(input);
+		final long after = threads.getThreadAllocatedBytes(tid);
+		check(result, expected);
+		return (after - before) / (double) ROWS;
+	}
+
+	private static void check(QcertData result, long expected) {
+		if(result.getAsLong() != expected) {
+			throw new AssertionError("Expected " + expected + ", but got " + result);
+		}
+	}
+
+	private static boolean report(String name, double bytes, double budget) {
+		final boolean ok = bytes <= budget;
+		System.out.println("[AllocationTest] " + name + ": " + String.format("%.2f", bytes)
+				+ " bytes/row (budget " + budget + ") " + (ok ? "OK" : "FAILED"));
+		return ok;
+	}
+
+	public static void main(String[] args) {
+		if(! (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+			System.out.println("[AllocationTest] skipped: no per-thread allocation counters");
+			return;
+		}
+		final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		if(! threads.isThreadAllocatedMemorySupported()) {
+			System.out.println("[AllocationTest] skipped: no per-thread allocation counters");
+			return;
+		}
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		final QcertData persons = persons();
+		long count = 0, sum = 0, like = 0;
+		for(int i = 0; i < ROWS; i ++) {
+			final String name = Integer.toString(i);
+			if(name.length() >= 3 && name.charAt(0) == '1' && name.charAt(2) == '3') {
+				like ++;
+			}
+			if(i % 60 < 30 && i % CITIES.length == 0) {
+				count ++;
+			}
+			if(i % CITIES.length != 2) {
+				sum += i % 60;
+			}
+		}
+
+		boolean ok = true;
+		// one singleton bag per match (an eighth of the rows), which is about 12 bytes
+		// per row; a single object allocated per row would exceed the budget
+		ok &= report("filter-count", bytesPerRow(threads, AllocationTest::filterCount, persons, count), 24);
+		// the mapped ages are kept unboxed, 8 bytes per row, since the bag could be
+		// used again; nothing else is allocated per row
+		ok &= report("sum", bytesPerRow(threads, AllocationTest::sumAges, persons, sum), 12);
+		// the clauses built by the generated code, the cache key and a regex matcher,
+		// about 300 bytes per row: compiling the pattern again takes over 1000
+		ok &= report("like", bytesPerRow(threads, AllocationTest::likeCount, persons, like), 600);
+		if(! ok) {
+			System.exit(1);
+		}
+	}
+}
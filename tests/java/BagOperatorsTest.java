@@ -0,0 +1,68 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.qcert.runtime.BinaryOperators;
+import org.qcert.runtime.JsonConverter;
+import org.qcert.runtime.QcertData;
+
+import com.google.gson.JsonParser;
+
+/**
+ * Tests of the multiplicities and order of bag_minus, bag_min and bag_max.
+ */
+public class BagOperatorsTest {
+	private static boolean ok = true;
+
+	private static QcertData data(String json) {
+		return JsonConverter.fromJson(new JsonParser().parse(json));
+	}
+
+	/* Results are compared as text, so the order of the elements is checked too */
+	private static void check(String name, QcertData actual, String expected) {
+		if(! data(expected).toString().equals(actual.toString())) {
+			System.out.println("[BagOperatorsTest] " + name + ": expected " + expected + ", but got " + actual);
+			ok = false;
+		}
+	}
+
+	public static void main(String[] args) {
+		final QcertData ones = data("[1, 2, 1, 3, 1]");
+
+		// each element of the second bag removes the first equal element of the first one
+		check("bag_minus", BinaryOperators.bag_minus(ones, data("[1, 1, 4]")), "[2, 3, 1]");
+		check("bag_minus of more occurrences", BinaryOperators.bag_minus(ones, data("[1, 1, 1, 1]")), "[2, 3]");
+		check("bag_minus of nothing", BinaryOperators.bag_minus(ones, data("[]")), "[1, 2, 1, 3, 1]");
+		check("bag_minus from nothing", BinaryOperators.bag_minus(data("[]"), ones), "[]");
+		check("bag_minus of records",
+				BinaryOperators.bag_minus(data("[{\"a\": 1, \"b\": \"x\"}, {\"a\": 2}, {\"b\": \"x\", \"a\": 1}]"),
+						data("[{\"b\": \"x\", \"a\": 1}]")),
+				"[{\"a\": 2}, {\"a\": 1, \"b\": \"x\"}]");
+
+		// min(n1, n2) occurrences of each value, the last ones of the first bag
+		check("bag_min", BinaryOperators.bag_min(ones, data("[1, 1, 2, 2]")), "[2, 1, 1]");
+		check("bag_min with nothing in common", BinaryOperators.bag_min(ones, data("[4, \"1\"]")), "[]");
+		check("bag_min with itself", BinaryOperators.bag_min(ones, ones), "[1, 2, 1, 3, 1]");
+		check("bag_min of strings", BinaryOperators.bag_min(data("[\"a\", \"b\", \"a\"]"), data("[\"a\"]")), "[\"a\"]");
+
+		// max(n1, n2) occurrences of each value
+		check("bag_max", BinaryOperators.bag_max(ones, data("[1, 1, 2, 2]")), "[1, 2, 1, 3, 1, 2]");
+		check("bag_max with itself", BinaryOperators.bag_max(ones, ones), "[1, 2, 1, 3, 1]");
+
+		if(ok) {
+			System.out.println("[BagOperatorsTest] OK");
+		} else {
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.qcert.runtime.BinaryOperators;
+import org.qcert.runtime.JsonConverter;
+import org.qcert.runtime.QcertData;
+import org.qcert.runtime.RuntimeUtils;
+import org.qcert.runtime.StringData;
+import org.qcert.runtime.UnaryOperators;
+
+import com.google.gson.JsonParser;
+
+/**
+ * Tests of distinct, which keeps the first occurrence of each value in
+ * order, and of contains.
+ */
+public class DistinctTest {
+	private static boolean ok = true;
+
+	private static QcertData data(String json) {
+		return JsonConverter.fromJson(new JsonParser().parse(json));
+	}
+
+	/* Results are compared as text, so the order of the elements is checked too */
+	private static void check(String name, QcertData actual, String expected) {
+		if(! data(expected).toString().equals(actual.toString())) {
+			System.out.println("[DistinctTest] " + name + ": expected " + expected + ", but got " + actual);
+			ok = false;
+		}
+	}
+
+	public static void main(String[] args) {
+		check("distinct", UnaryOperators.distinct(data("[3, 1, 3, 2, 1]")), "[3, 1, 2]");
+		check("distinct of nothing", UnaryOperators.distinct(data("[]")), "[]");
+		check("distinct of nats", UnaryOperators.distinct(data("[{\"$nat\": 2}, {\"$nat\": 2}, {\"$nat\": 3000000000}, {\"$nat\": 2}]")),
+				"[{\"$nat\": 2}, {\"$nat\": 3000000000}]");
+		// the first of equal records is kept, whatever the order of their fields
+		check("distinct of records",
+				UnaryOperators.distinct(data("[{\"a\": 1, \"b\": [\"x\", \"y\"]}, {\"a\": 2}, {\"b\": [\"y\", \"x\"], \"a\": 1}]")),
+				"[{\"a\": 1, \"b\": [\"x\", \"y\"]}, {\"a\": 2}]");
+		// strings from the input and strings built at run time
+		final QcertData mixed = new RuntimeUtils.BagBuilder()
+				.add(data("\"NYC\""))
+				.add(new StringData("NY" + "C".trim()))
+				.add(StringData.intern("NYC"))
+				.add(new StringData("SF"))
+				.result();
+		check("distinct of strings", UnaryOperators.distinct(mixed), "[\"NYC\", \"SF\"]");
+
+		final QcertData bag = data("[1, \"a\", {\"b\": 2}]");
+		check("contains", BinaryOperators.contains(data("{\"b\": 2}"), bag), "true");
+		check("contains a string", BinaryOperators.contains(new StringData("a"), bag), "true");
+		check("does not contain", BinaryOperators.contains(data("{\"b\": 3}"), bag), "false");
+
+		if(ok) {
+			System.out.println("[DistinctTest] OK");
+		} else {
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.qcert.runtime.BagData;
+import org.qcert.runtime.JsonConverter;
+import org.qcert.runtime.NatData;
+import org.qcert.runtime.QcertData;
+import org.qcert.runtime.RecData;
+import org.qcert.runtime.RuntimeUtils;
+import org.qcert.runtime.UnaryOperators;
+
+import com.google.gson.JsonParser;
+
+/**
+ * Tests of groupby: groups come in the order of their first record, and
+ * keep the order of their records, on the sequential and parallel paths.
+ */
+public class GroupByTest {
+	// Read once by the runtime, so it is set before the runtime is loaded
+	static {
+		System.setProperty("qcert.parallel", "true");
+	}
+
+	// The parallel path is taken for bags of at least two slices of 2^15 records
+	private static final int LARGE = 100000;
+	private static final int KEYS = 7;
+
+	private static boolean ok = true;
+
+	private static QcertData data(String json) {
+		return JsonConverter.fromJson(new JsonParser().parse(json));
+	}
+
+	/* Results are compared as text, so the order of the elements is checked too */
+	private static void check(String name, QcertData actual, String expected) {
+		if(! data(expected).toString().equals(actual.toString())) {
+			System.out.println("[GroupByTest] " + name + ": expected " + expected + ", but got " + actual);
+			ok = false;
+		}
+	}
+
+	private static void check(String name, long actual, long expected) {
+		if(actual != expected) {
+			System.out.println("[GroupByTest] " + name + ": expected " + expected + ", but got " + actual);
+			ok = false;
+		}
+	}
+
+	public static void main(String[] args) {
+		final QcertData persons = data("["
+				+ "{\"name\": \"Ann\", \"city\": \"NYC\", \"age\": {\"$nat\": 30}},"
+				+ "{\"name\": \"Bob\", \"city\": \"SF\", \"age\": {\"$nat\": 30}},"
+				+ "{\"name\": \"Cid\", \"city\": \"NYC\", \"age\": {\"$nat\": 40}},"
+				+ "{\"name\": \"Dan\", \"city\": \"NYC\", \"age\": {\"$nat\": 30}}"
+				+ "]");
+		check("groupby", UnaryOperators.groupby("people", Collections.singletonList("city"), persons), "["
+				+ "{\"city\": \"NYC\", \"people\": ["
+				+ "  {\"name\": \"Ann\", \"city\": \"NYC\", \"age\": {\"$nat\": 30}},"
+				+ "  {\"name\": \"Cid\", \"city\": \"NYC\", \"age\": {\"$nat\": 40}},"
+				+ "  {\"name\": \"Dan\", \"city\": \"NYC\", \"age\": {\"$nat\": 30}}]},"
+				+ "{\"city\": \"SF\", \"people\": ["
+				+ "  {\"name\": \"Bob\", \"city\": \"SF\", \"age\": {\"$nat\": 30}}]}"
+				+ "]");
+		check("groupby on two keys", UnaryOperators.groupby("n", Arrays.asList("city", "age"),
+				data("[{\"city\": \"NYC\", \"age\": 1}, {\"age\": 2, \"city\": \"NYC\"}, {\"age\": 1, \"city\": \"NYC\"}]")), "["
+				+ "{\"age\": 1, \"city\": \"NYC\", \"n\": [{\"city\": \"NYC\", \"age\": 1}, {\"city\": \"NYC\", \"age\": 1}]},"
+				+ "{\"age\": 2, \"city\": \"NYC\", \"n\": [{\"city\": \"NYC\", \"age\": 2}]}"
+				+ "]");
+		check("groupby of nothing", UnaryOperators.groupby("g", Collections.singletonList("k"), data("[]")), "[]");
+
+		// on the parallel path, groups and records keep the order of the input
+		final RuntimeUtils.BagBuilder rows = new RuntimeUtils.BagBuilder(LARGE);
+		for(int i = 0; i < LARGE; i ++) {
+			rows.add(new RuntimeUtils.RecBuilder()
+					.add("k", NatData.of((i / 3 + 5) % KEYS))
+					.add("i", NatData.of(i))
+					.toRec());
+		}
+		final BagData groups = UnaryOperators.groupby("g", Collections.singletonList("k"), rows.result()).getAsBag();
+		check("number of groups", groups.size(), KEYS);
+		long total = 0;
+		for(int k = 0; k < groups.size(); k ++) {
+			final RecData group = groups.get(k).getAsRec();
+			check("key of group " + k, group.get("k").getAsLong(), (k + 5) % KEYS);
+			long previous = -1;
+			for(final QcertData row : group.get("g").getAsBag()) {
+				final long i = row.getAsRec().get("i").getAsLong();
+				check("key of row " + i, row.getAsRec().get("k").getAsLong(), (k + 5) % KEYS);
+				if(i <= previous) {
+					check("order of row " + i, i, previous + 1);
+				}
+				previous = i;
+				total ++;
+			}
+		}
+		check("number of rows", total, LARGE);
+
+		if(ok) {
+			System.out.println("[GroupByTest] OK");
+		} else {
+			System.exit(1);
+		}
+	}
+}
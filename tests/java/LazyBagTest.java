@@ -0,0 +1,102 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Iterator;
+import java.util.function.Function;
+
+import org.qcert.runtime.BagData;
+import org.qcert.runtime.NatData;
+import org.qcert.runtime.QcertData;
+import org.qcert.runtime.RuntimeUtils;
+import org.qcert.runtime.StringData;
+import org.qcert.runtime.UnaryOperators;
+
+/**
+ * Tests of the lazy bags built by map and filter: however many times such
+ * a bag is used, its stage runs once per element.
+ */
+public class LazyBagTest {
+	private static boolean ok = true;
+
+	/* A stage that counts its calls */
+	private static final class Counting implements Function<QcertData, QcertData> {
+		int calls = 0;
+		private final Function<QcertData, QcertData> f;
+
+		Counting(Function<QcertData, QcertData> f) {
+			this.f = f;
+		}
+
+		@Override
+		public QcertData apply(QcertData elem) {
+			calls ++;
+			return f.apply(elem);
+		}
+	}
+
+	private static BagData nats(int size) {
+		final RuntimeUtils.BagBuilder bag = new RuntimeUtils.BagBuilder();
+		for(int i = 0; i < size; i ++) {
+			bag.add(NatData.of(i));
+		}
+		return bag.result();
+	}
+
+	private static void check(String name, Object actual, Object expected) {
+		if(! expected.equals(actual)) {
+			System.out.println("[LazyBagTest] " + name + ": expected " + expected + ", but got " + actual);
+			ok = false;
+		}
+	}
+
+	public static void main(String[] args) {
+		// an average: the bag is used by sum, count, and sum again
+		final Counting twice = new Counting(n -> NatData.of(2 * n.getAsLong()));
+		final BagData doubled = nats(3).map(twice);
+		check("sum", UnaryOperators.sum(doubled).getAsLong(), 6L);
+		check("count", UnaryOperators.count(doubled).getAsLong(), 3L);
+		check("sum again", UnaryOperators.sum(doubled).getAsLong(), 6L);
+		check("calls for sum, count, sum", twice.calls, 3);
+
+		// a traversal that stops early, then a full one
+		final Counting identity = new Counting(n -> n);
+		final BagData same = nats(5).map(identity);
+		final Iterator<QcertData> it = same.iterator();
+		check("first", it.next().getAsLong(), 0L);
+		check("count after the first", UnaryOperators.count(same).getAsLong(), 5L);
+		check("second", it.next().getAsLong(), 1L);
+		check("calls for a partial and a full traversal", identity.calls, 5);
+
+		// chained stages, used twice, over more elements than fit in a chunk
+		final Counting square = new Counting(n -> NatData.of(n.getAsLong() * n.getAsLong()));
+		final Counting label = new Counting(n -> new StringData("n" + n.getAsLong()));
+		final BagData squares = nats(5000).filter(n -> n.getAsLong() % 2 == 0).map(square);
+		final BagData labels = squares.map(label);
+		check("count of the chain", UnaryOperators.count(labels).getAsLong(), 2500L);
+		long sum = 0;
+		for(final QcertData elem : squares) {
+			sum += elem.getAsLong();
+		}
+		check("sum of the chain", sum, 20820835000L);
+		check("element of a later chunk", labels.get(2000).getAsString(), "n16000000");
+		check("calls of the first stage", square.calls, 2500);
+		check("calls of the second stage", label.calls, 2500);
+
+		if(ok) {
+			System.out.println("[LazyBagTest] OK");
+		} else {
+			System.exit(1);
+		}
+	}
+}
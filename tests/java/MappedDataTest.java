@@ -0,0 +1,82 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import org.qcert.runtime.BinaryOperators;
+import org.qcert.runtime.JsonConverter;
+import org.qcert.runtime.MappedData;
+import org.qcert.runtime.QcertData;
+
+import com.google.gson.JsonParser;
+
+/**
+ * Round-trip test for the binary input format of the Java runtime.
+ * Converts JSON input to the binary format, maps it back, and checks that
+ * it is equal to the data read from the JSON directly.
+ */
+public class MappedDataTest {
+	private static final String INPUT = "{"
+			// top-level bags are streamed, and switch representation as they go
+			+ "\"nats\": [{\"$nat\": 1}, {\"$nat\": -2}, {\"$nat\": 3000000000}],"
+			+ "\"floats\": [1.5, -0.0, 2.0],"
+			+ "\"mixed\": [{\"$nat\": 1}, {\"$nat\": 2}, 2.5, \"three\", null, true],"
+			+ "\"empty\": [],"
+			+ "\"persons\": ["
+			+ "  {\"name\": \"Ann\", \"age\": {\"$nat\": 31}, \"tags\": [\"a\", \"b\", \"a\"], \"address\": {\"city\": \"NYC\"}},"
+			+ "  {\"name\": \"Bob\", \"age\": {\"$nat\": 27}, \"tags\": [], \"address\": {}},"
+			+ "  {\"name\": \"A string that is long enough not to be shared by the encoder\", \"age\": {\"$nat\": 0}, \"tags\": [\"a\"], \"address\": {\"city\": \"Paris\"}}"
+			+ "],"
+			+ "\"sums\": [{\"$left\": {\"$nat\": 1}}, {\"$right\": null}, {\"$right\": \"no\"}],"
+			+ "\"branded\": [{\"$class\": [\"Customer\", \"Entity\"], \"$data\": {\"id\": \"c1\"}}],"
+			+ "\"dates\": [{\"$foreign\": {\"$date\": {\"year\": 2020, \"month\": 2, \"day\": 29}}}],"
+			// top-level values that are not bags
+			+ "\"limit\": {\"$nat\": 10},"
+			+ "\"config\": {\"verbose\": false, \"ratio\": 0.25}"
+			+ "}";
+
+	public static void main(String[] args) throws IOException {
+		final File json = File.createTempFile("qcert", ".json");
+		final File bin = File.createTempFile("qcert", ".bin");
+		json.deleteOnExit();
+		bin.deleteOnExit();
+		try(final Writer out = new FileWriter(json)) {
+			out.write(INPUT);
+		}
+		MappedData.convert(json.getPath(), bin.getPath());
+		if(! MappedData.isBinary(bin.getPath()) || MappedData.isBinary(json.getPath())) {
+			fail("binary files are not recognized");
+		}
+
+		final QcertData expected = JsonConverter.fromJson(new JsonParser().parse(INPUT));
+		final QcertData actual = MappedData.open(bin.getPath());
+		if(! BinaryOperators.equals(expected, actual).getAsBoolean()
+				|| ! BinaryOperators.equals(actual, expected).getAsBoolean()) {
+			fail("expected " + expected + ", but got " + actual);
+		}
+		// lazily decoded values are decoded again on each access
+		if(! expected.toString().equals(actual.toString())) {
+			fail("expected " + expected + ", but got " + actual);
+		}
+		System.out.println("[MappedDataTest] OK");
+	}
+
+	private static void fail(String message) {
+		System.out.println("[MappedDataTest] FAILED: " + message);
+		System.exit(1);
+	}
+}
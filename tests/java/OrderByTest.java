@@ -0,0 +1,139 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.qcert.runtime.BinaryOperators;
+import org.qcert.runtime.JsonConverter;
+import org.qcert.runtime.NatData;
+import org.qcert.runtime.QcertData;
+import org.qcert.runtime.UnaryOperators;
+
+import com.google.gson.JsonParser;
+
+/**
+ * Tests of sort, topk and sort_nth: the order of the keys, stability, and
+ * the checks of the sort keys.
+ */
+public class OrderByTest {
+	private static final Collection<String> BY_KEY = Collections.singletonList("key");
+
+	private static boolean ok = true;
+
+	private static QcertData data(String json) {
+		return JsonConverter.fromJson(new JsonParser().parse(json));
+	}
+
+	/* Results are compared as text, so the order of the elements is checked too */
+	private static void check(String name, QcertData actual, String expected) {
+		if(! data(expected).toString().equals(actual.toString())) {
+			System.out.println("[OrderByTest] " + name + ": expected " + expected + ", but got " + actual);
+			ok = false;
+		}
+	}
+
+	private static void checkRejected(String name, Runnable r) {
+		try {
+			r.run();
+			System.out.println("[OrderByTest] " + name + ": expected an IllegalArgumentException");
+			ok = false;
+		} catch(IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	public static void main(String[] args) {
+		// nats first, then strings; floats are compared with nats by value
+		final QcertData mixed = data("["
+				+ "{\"key\": \"b\"}, {\"key\": {\"$nat\": 10}}, {\"key\": \"a\"}, {\"key\": 2.5}, {\"key\": {\"$nat\": -1}}, {\"key\": \"10\"}"
+				+ "]");
+		check("nats before strings", UnaryOperators.sort(BY_KEY, mixed), "["
+				+ "{\"key\": {\"$nat\": -1}}, {\"key\": 2.5}, {\"key\": {\"$nat\": 10}}, {\"key\": \"10\"}, {\"key\": \"a\"}, {\"key\": \"b\"}"
+				+ "]");
+
+		// strings compare lexicographically, even when they look like date-times
+		check("strings that look like date-times", UnaryOperators.sort(BY_KEY, data("["
+				+ "{\"key\": \"b\"}, {\"key\": \"2020-01-01T00:00:00+01:00\"}, {\"key\": \"2020-01-01T00:00:00Z\"}, {\"key\": \"1\"}"
+				+ "]")), "["
+				+ "{\"key\": \"1\"}, {\"key\": \"2020-01-01T00:00:00+01:00\"}, {\"key\": \"2020-01-01T00:00:00Z\"}, {\"key\": \"b\"}"
+				+ "]");
+		check("distinct strings denoting the same instant",
+				UnaryOperators.distinct(data("[\"2020-01-01T00:00:00Z\", \"2020-01-01T01:00:00+01:00\"]")),
+				"[\"2020-01-01T00:00:00Z\", \"2020-01-01T01:00:00+01:00\"]");
+
+		// records with equal keys keep their order, on each criterion
+		final QcertData ties = data("["
+				+ "{\"key\": {\"$nat\": 2}, \"k2\": \"x\", \"id\": 1},"
+				+ "{\"key\": {\"$nat\": 1}, \"k2\": \"y\", \"id\": 2},"
+				+ "{\"key\": {\"$nat\": 2}, \"k2\": \"x\", \"id\": 3},"
+				+ "{\"key\": {\"$nat\": 1}, \"k2\": \"x\", \"id\": 4},"
+				+ "{\"key\": {\"$nat\": 2}, \"k2\": \"a\", \"id\": 5}"
+				+ "]");
+		check("stable sort", UnaryOperators.sort(BY_KEY, ties), "["
+				+ "{\"key\": {\"$nat\": 1}, \"k2\": \"y\", \"id\": 2},"
+				+ "{\"key\": {\"$nat\": 1}, \"k2\": \"x\", \"id\": 4},"
+				+ "{\"key\": {\"$nat\": 2}, \"k2\": \"x\", \"id\": 1},"
+				+ "{\"key\": {\"$nat\": 2}, \"k2\": \"x\", \"id\": 3},"
+				+ "{\"key\": {\"$nat\": 2}, \"k2\": \"a\", \"id\": 5}"
+				+ "]");
+		check("stable sort on two keys", UnaryOperators.sort(Arrays.asList("key", "k2"), ties), "["
+				+ "{\"key\": {\"$nat\": 1}, \"k2\": \"x\", \"id\": 4},"
+				+ "{\"key\": {\"$nat\": 1}, \"k2\": \"y\", \"id\": 2},"
+				+ "{\"key\": {\"$nat\": 2}, \"k2\": \"a\", \"id\": 5},"
+				+ "{\"key\": {\"$nat\": 2}, \"k2\": \"x\", \"id\": 1},"
+				+ "{\"key\": {\"$nat\": 2}, \"k2\": \"x\", \"id\": 3}"
+				+ "]");
+		check("sort on no key", UnaryOperators.sort(Collections.<String>emptyList(), ties), ties.toString());
+
+		// topk is a prefix of sort, with the same ties
+		check("topk", UnaryOperators.topk(BY_KEY, 3, ties), "["
+				+ "{\"key\": {\"$nat\": 1}, \"k2\": \"y\", \"id\": 2},"
+				+ "{\"key\": {\"$nat\": 1}, \"k2\": \"x\", \"id\": 4},"
+				+ "{\"key\": {\"$nat\": 2}, \"k2\": \"x\", \"id\": 1}"
+				+ "]");
+		check("topk of the size", UnaryOperators.topk(BY_KEY, 5, ties), UnaryOperators.sort(BY_KEY, ties).toString());
+		check("topk of more than the size", UnaryOperators.topk(BY_KEY, 100, ties), UnaryOperators.sort(BY_KEY, ties).toString());
+		check("topk of none", UnaryOperators.topk(BY_KEY, 0, ties), "[]");
+
+		// sort_nth is bag_nth of the sorted bag
+		check("sort_nth", BinaryOperators.sort_nth(BY_KEY, ties, NatData.of(2)),
+				"{\"$left\": {\"key\": {\"$nat\": 2}, \"k2\": \"x\", \"id\": 1}}");
+		check("sort_nth of the last", BinaryOperators.sort_nth(BY_KEY, ties, NatData.of(4)),
+				"{\"$left\": {\"key\": {\"$nat\": 2}, \"k2\": \"a\", \"id\": 5}}");
+		check("sort_nth out of range", BinaryOperators.sort_nth(BY_KEY, ties, NatData.of(5)), "{\"$right\": null}");
+		check("sort_nth far out of range", BinaryOperators.sort_nth(BY_KEY, ties, NatData.of(Long.MAX_VALUE)), "{\"$right\": null}");
+		check("sort_nth of a negative index", BinaryOperators.sort_nth(BY_KEY, ties, NatData.of(-1)), "{\"$right\": null}");
+		check("sort_nth of nothing", BinaryOperators.sort_nth(BY_KEY, data("[]"), NatData.of(0)), "{\"$right\": null}");
+
+		// sort keys are checked whatever the size of the bag
+		final QcertData missing = data("[{\"other\": 1}]");
+		final QcertData bool = data("[{\"key\": true}]");
+		checkRejected("sort of one record without the key", () -> UnaryOperators.sort(BY_KEY, missing));
+		checkRejected("sort of one record with a boolean key", () -> UnaryOperators.sort(BY_KEY, bool));
+		checkRejected("topk of one record without the key", () -> UnaryOperators.topk(BY_KEY, 1, missing));
+		checkRejected("topk of none of one record with a boolean key", () -> UnaryOperators.topk(BY_KEY, 0, bool));
+		checkRejected("sort of records with a boolean key",
+				() -> UnaryOperators.sort(BY_KEY, data("[{\"key\": 1}, {\"key\": false}, {\"key\": 2}]")));
+		check("sort of nothing", UnaryOperators.sort(BY_KEY, data("[]")), "[]");
+		check("sort of one record", UnaryOperators.sort(BY_KEY, data("[{\"key\": \"a\"}]")), "[{\"key\": \"a\"}]");
+
+		if(ok) {
+			System.out.println("[OrderByTest] OK");
+		} else {
+			System.exit(1);
+		}
+	}
+}
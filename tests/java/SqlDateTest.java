@@ -0,0 +1,104 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.time.LocalDate;
+
+import org.qcert.runtime.DateData;
+import org.qcert.runtime.NatData;
+import org.qcert.runtime.PeriodData;
+import org.qcert.runtime.QcertData;
+import org.qcert.runtime.SqlDateComponent;
+import org.qcert.runtime.StringData;
+
+/**
+ * Tests of the SQL date operators: getting and setting components, which
+ * carry over out of range values, adding periods, and periods between dates.
+ */
+public class SqlDateTest {
+	private static boolean ok = true;
+
+	private static QcertData date(String date) {
+		return new DateData(LocalDate.parse(date));
+	}
+
+	private static QcertData period(String period) {
+		return SqlDateComponent.sql_date_period_from_string(new StringData(period));
+	}
+
+	private static void check(String name, Object actual, Object expected) {
+		if(! expected.equals(actual)) {
+			System.out.println("[SqlDateTest] " + name + ": expected " + expected + ", but got " + actual);
+			ok = false;
+		}
+	}
+
+	private static void checkDate(String name, QcertData actual, String expected) {
+		check(name, ((DateData) actual).getDate().toString(), expected);
+	}
+
+	private static void checkPeriod(String name, QcertData actual, PeriodData.Unit unit, long amount) {
+		check(name + " (unit)", ((PeriodData) actual).getUnit(), unit);
+		check(name + " (amount)", ((PeriodData) actual).getAmount(), amount);
+	}
+
+	private static QcertData set(String part, String date, long value) {
+		return SqlDateComponent.sql_date_set_component(part, date(date), NatData.of(value));
+	}
+
+	public static void main(String[] args) {
+		final QcertData leap = date("2020-02-29");
+		check("year", SqlDateComponent.sql_date_get_component(SqlDateComponent.YEAR, leap).getAsLong(), 2020L);
+		check("month", SqlDateComponent.sql_date_get_component(SqlDateComponent.MONTH, leap).getAsLong(), 2L);
+		check("day", SqlDateComponent.sql_date_get_component(SqlDateComponent.DAY, leap).getAsLong(), 29L);
+
+		checkDate("set the year", set(SqlDateComponent.YEAR, "2020-02-29", 2024), "2024-02-29");
+		checkDate("set the year of Feb 29 to a common year", set(SqlDateComponent.YEAR, "2020-02-29", 2021), "2021-03-01");
+		checkDate("set the month", set(SqlDateComponent.MONTH, "2020-01-15", 6), "2020-06-15");
+		checkDate("set the month of a day past its end", set(SqlDateComponent.MONTH, "2020-01-31", 2), "2020-03-02");
+		checkDate("set the month past the year", set(SqlDateComponent.MONTH, "2020-01-31", 13), "2021-01-31");
+		checkDate("set the month to 0", set(SqlDateComponent.MONTH, "2020-05-10", 0), "2019-12-10");
+		checkDate("set the day", set(SqlDateComponent.DAY, "2020-01-15", 3), "2020-01-03");
+		checkDate("set the day past the month", set(SqlDateComponent.DAY, "2020-01-15", 32), "2020-02-01");
+		checkDate("set the day to 0", set(SqlDateComponent.DAY, "2020-03-15", 0), "2020-02-29");
+
+		// months and years added on the calendar are clamped to the end of the month
+		checkDate("plus days", SqlDateComponent.sql_date_plus(date("2020-02-28"), period("2-DAY")), "2020-03-01");
+		checkDate("plus a month", SqlDateComponent.sql_date_plus(date("2020-01-31"), period("1-MONTH")), "2020-02-29");
+		checkDate("plus a year", SqlDateComponent.sql_date_plus(leap, period("1-YEAR")), "2021-02-28");
+		checkDate("minus a month", SqlDateComponent.sql_date_minus(date("2020-03-31"), period("1-MONTH")), "2020-02-29");
+		checkDate("plus negative days", SqlDateComponent.sql_date_plus(leap, period("-30-DAY")), "2020-01-30");
+
+		checkPeriod("period between", SqlDateComponent.sql_date_period_between(date("2020-03-01"), date("2020-02-01")), PeriodData.Unit.DAY, 29);
+		checkPeriod("period between in reverse", SqlDateComponent.sql_date_period_between(date("2020-02-01"), date("2020-03-01")), PeriodData.Unit.DAY, -29);
+		checkPeriod("period between years", SqlDateComponent.sql_date_period_between(date("2021-01-01"), date("2020-01-01")), PeriodData.Unit.DAY, 366);
+		checkPeriod("period between a date and itself", SqlDateComponent.sql_date_period_between(leap, leap), PeriodData.Unit.DAY, 0);
+
+		check("lt", SqlDateComponent.sql_date_lt(date("2019-12-31"), leap).getAsBoolean(), true);
+		check("ge", SqlDateComponent.sql_date_ge(leap, date("2020-02-29")).getAsBoolean(), true);
+		check("ne", SqlDateComponent.sql_date_ne(leap, date("2020-02-29")).getAsBoolean(), false);
+		checkDate("from string", SqlDateComponent.sql_date_from_string(new StringData("2020-02-29")), "2020-02-29");
+		try {
+			period("MONTH");
+			check("malformed period", "accepted", "rejected");
+		} catch(RuntimeException e) {
+			// expected
+		}
+
+		if(ok) {
+			System.out.println("[SqlDateTest] OK");
+		} else {
+			System.exit(1);
+		}
+	}
+}
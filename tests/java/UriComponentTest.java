@@ -0,0 +1,89 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.qcert.runtime.QcertData;
+import org.qcert.runtime.StringData;
+import org.qcert.runtime.UriComponent;
+
+/**
+ * Tests of uriEncode and uriDecode, against the results of
+ * encodeURIComponent and decodeURIComponent in JavaScript.
+ */
+public class UriComponentTest {
+	private static boolean ok = true;
+
+	private static void check(String name, String actual, String expected) {
+		if(! expected.equals(actual)) {
+			System.out.println("[UriComponentTest] " + name + ": expected " + expected + ", but got " + actual);
+			ok = false;
+		}
+	}
+
+	private static String encode(String str) {
+		return UriComponent.uriEncode(new StringData(str)).getAsString();
+	}
+
+	private static String decode(String str) {
+		return UriComponent.uriDecode(new StringData(str)).getAsString();
+	}
+
+	private static void checkRejected(String name, String str) {
+		try {
+			decode(str);
+			System.out.println("[UriComponentTest] " + name + ": expected an IllegalArgumentException");
+			ok = false;
+		} catch(IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	public static void main(String[] args) {
+		// an e acute, a euro sign, and U+1F600, which is a surrogate pair
+		final String text = "a b&c/\u00e9\u20ac\ud83d\ude00";
+		final String escaped = "a%20b%26c%2F%C3%A9%E2%82%AC%F0%9F%98%80";
+		check("encode", encode(text), escaped);
+		check("decode", decode(escaped), text);
+		check("encode the unreserved characters", encode("AZaz09-_.!~*'()"), "AZaz09-_.!~*'()");
+		check("encode the reserved characters", encode(";,/?:@&=+$#%"), "%3B%2C%2F%3F%3A%40%26%3D%2B%24%23%25");
+		check("encode nothing", encode(""), "");
+		check("encode a lone surrogate", encode("x\ud83dy"), "x%3Fy");
+		check("decode lower case escapes", decode("%c3%a9"), "\u00e9");
+		check("decode escapes of reserved characters", decode("%3B%2c%2F"), ";,/");
+		check("decode a plus", decode("a+b"), "a+b");
+
+		// strings without anything to escape or unescape are returned as is
+		final QcertData plain = new StringData("plain-text");
+		if(UriComponent.uriEncode(plain) != plain || UriComponent.uriDecode(plain) != plain) {
+			System.out.println("[UriComponentTest] strings without escapes should not be copied");
+			ok = false;
+		}
+
+		// a long run of escapes
+		final StringBuilder longText = new StringBuilder();
+		for(int i = 0; i < 1000; i ++) {
+			longText.append((char) (0x400 + i % 64)).append(i % 7 == 0 ? "/" : "");
+		}
+		check("round trip", decode(encode(longText.toString())), longText.toString());
+
+		checkRejected("decode a bad escape", "a%zzb");
+		checkRejected("decode a truncated escape", "a%4");
+		checkRejected("decode a lone percent", "100%");
+
+		if(ok) {
+			System.out.println("[UriComponentTest] OK");
+		} else {
+			System.exit(1);
+		}
+	}
+}